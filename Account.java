@@ -0,0 +1,327 @@
+import java.util.Arrays;
+
+/**
+ * Represents a bank account.
+ * <p>
+ * The mutators below are not synchronized themselves; {@link Ledger} serializes
+ * every mutation of an account under that account's lock stripe. Balance and
+ * loan amount are volatile so readers such as the UI see the latest posting.
+ * All amounts are in cents (see {@link Money}).
+ * <p>
+ * An account restored from a {@link Snapshot} starts with its history still on
+ * disk and reads it on first use.
+ */
+class Account {
+    public enum AccountType { CHECKING, SAVINGS }
+
+    public static final long WITHDRAWAL_FEE = 50; // R0.50 per checking withdrawal
+    private static final Loan[] NO_LOANS = {};
+
+    private final String accountNumber;
+    private final String pinHash; // Salted PIN hash; see Pins
+    private String accountHolderName;
+    private volatile long balance;
+    private AccountType type;
+    private TransactionHistory transactionHistory;
+    private Snapshot.History snapshotHistory; // Non-null until the history is read from the snapshot
+    private volatile long loanAmount; // Owed on the flat loan plus every scheduled loan
+    private volatile Loan[] loans = NO_LOANS; // Scheduled loans still owing, oldest first; replaced, never mutated
+    private RiskProfile riskProfile; // Created on first use by the risk rules
+
+    /**
+     * @param pinHash The PIN credential from {@link Pins#hash}, never the PIN itself.
+     */
+    public Account(String accountNumber, String pinHash, String accountHolderName, AccountType type) {
+        this.accountNumber = accountNumber;
+        this.pinHash = pinHash;
+        this.accountHolderName = accountHolderName;
+        this.type = type;
+        this.balance = 0;
+        this.transactionHistory = new TransactionHistory();
+        this.loanAmount = 0;
+    }
+
+    /**
+     * Restores an account from a snapshot; its history is read lazily.
+     */
+    Account(String accountNumber, String pinHash, String accountHolderName, AccountType type,
+            long balance, long loanAmount, Snapshot.History snapshotHistory) {
+        this.accountNumber = accountNumber;
+        this.pinHash = pinHash;
+        this.accountHolderName = accountHolderName;
+        this.type = type;
+        this.balance = balance;
+        this.loanAmount = loanAmount;
+        this.snapshotHistory = snapshotHistory;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    /** The stored PIN credential; check a PIN with {@link Pins#verify}. */
+    public String getPinHash() {
+        return pinHash;
+    }
+
+    public String getAccountHolderName() {
+        return accountHolderName;
+    }
+
+    public long getBalance() {
+        return balance;
+    }
+
+    public AccountType getType() {
+        return type;
+    }
+
+    public TransactionHistory getTransactionHistory() {
+        if (snapshotHistory != null) {
+            transactionHistory = snapshotHistory.load();
+            snapshotHistory = null;
+        }
+        return transactionHistory;
+    }
+
+    /** Number of transactions, without reading a history still in the snapshot. */
+    int getTransactionCount() {
+        return snapshotHistory != null ? snapshotHistory.size() : transactionHistory.size();
+    }
+
+    /** The snapshot block holding this account's history, or null once it has been read. */
+    Snapshot.History getSnapshotHistory() {
+        return snapshotHistory;
+    }
+
+    /** Points a still-unread history at the copy of its block in a newer snapshot. */
+    void moveSnapshotHistory(Snapshot.History history) {
+        if (snapshotHistory != null) snapshotHistory = history;
+    }
+
+    /** Everything the account owes: its flat loan and its scheduled loans. */
+    public long getLoanAmount() {
+        return loanAmount;
+    }
+
+    /**
+     * What is owed on the single loan of {@link #takeLoan}, apart from the
+     * scheduled loans: the loan amount less their outstanding principal.
+     */
+    long getFlatLoanAmount() {
+        long scheduled = 0;
+        for (Loan loan : loans) {
+            scheduled += loan.getOutstanding();
+        }
+        return loanAmount - scheduled;
+    }
+
+    /** The account's recent activity for {@link RiskRules}; call under the account's stripe. */
+    RiskProfile riskProfile() {
+        if (riskProfile == null) riskProfile = new RiskProfile();
+        return riskProfile;
+    }
+
+    /** Scheduled loans still owing, oldest first; see {@link Loan}. */
+    Loan[] getLoans() {
+        return loans;
+    }
+
+    /** Attaches a loan without posting anything, e.g. one restored from a snapshot. */
+    void attachLoan(Loan loan) {
+        Loan[] grown = Arrays.copyOf(loans, loans.length + 1);
+        grown[loans.length] = loan;
+        loans = grown;
+    }
+
+    /**
+     * Deposits money into the account.
+     * @param amount The amount to deposit, in cents.
+     * @param description Description of the deposit.
+     * @return true if successful, false otherwise.
+     */
+    public boolean deposit(long amount, String description) {
+        if (amount > 0) {
+            getTransactionHistory().append(Transaction.Type.DEPOSIT, amount, System.currentTimeMillis(), description);
+            balance += amount; // After the history, so a posting it refuses leaves the balance alone
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Withdraws money from the account. Applies a fee for checking accounts.
+     * @param amount The amount to withdraw, in cents.
+     * @param description Description of the withdrawal.
+     * @return true if successful, false otherwise (e.g., insufficient funds).
+     */
+    public boolean withdraw(long amount, String description) {
+        long actualAmount = amount;
+        long fee = 0;
+
+        if (amount <= 0) {
+            return false;
+        }
+
+        // Apply fee for checking accounts
+        if (this.type == AccountType.CHECKING) {
+            fee = WITHDRAWAL_FEE;
+            actualAmount += fee;
+        }
+
+        if (balance >= actualAmount) {
+            getTransactionHistory().append(Transaction.Type.WITHDRAWAL, amount, System.currentTimeMillis(), description);
+            if (fee > 0) {
+                getTransactionHistory().append(Transaction.Type.FEE, fee, System.currentTimeMillis(), "Withdrawal Fee");
+            }
+            balance -= actualAmount;
+            return true;
+        }
+        return false; // Insufficient funds
+    }
+
+    /**
+     * Applies interest to savings accounts.
+     * @param rateBasisPoints The interest rate in basis points (e.g., 100 for 1%).
+     * @return The calculated interest amount in cents, rounded half-up.
+     */
+    public long applyInterest(int rateBasisPoints) {
+        return applyInterest(rateBasisPoints, "Monthly Interest Earned");
+    }
+
+    /**
+     * Applies interest under a given description, e.g. one naming the period.
+     * @see #applyInterest(int)
+     */
+    long applyInterest(int rateBasisPoints, String description) {
+        if (this.type == AccountType.SAVINGS && balance > 0) {
+            long interest = Money.percentage(balance, rateBasisPoints);
+            getTransactionHistory().append(Transaction.Type.INTEREST, interest, System.currentTimeMillis(), description);
+            balance += interest;
+            return interest;
+        }
+        return 0;
+    }
+
+    /**
+     * Takes out the flat loan; scheduled loans do not count against it.
+     * @param loanAmt The amount of the loan, in cents.
+     * @return true if successful, false otherwise.
+     */
+    public boolean takeLoan(long loanAmt) {
+        if (loanAmt > 0 && getFlatLoanAmount() == 0) { // Only one outstanding flat loan at a time
+            getTransactionHistory().append(Transaction.Type.LOAN_TAKEN, loanAmt, System.currentTimeMillis(), "Loan Taken");
+            this.loanAmount += loanAmt;
+            this.balance += loanAmt; // Loan amount is added to balance
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Repays a portion of the flat loan, at most what is owed on it. Scheduled
+     * loans are repaid only by their installments.
+     * @param repaymentAmt The amount to repay, in cents.
+     * @return true if successful, false otherwise (e.g., insufficient funds, no loan).
+     */
+    public boolean repayLoan(long repaymentAmt) {
+        long owed = getFlatLoanAmount();
+        if (repaymentAmt > 0 && owed > 0) {
+            long amount = Math.min(repaymentAmt, owed);
+            if (balance >= amount) {
+                getTransactionHistory().append(Transaction.Type.LOAN_REPAYMENT, amount, System.currentTimeMillis(), "Loan Repayment");
+                balance -= amount;
+                this.loanAmount -= amount;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pays out a scheduled loan. Unlike {@link #takeLoan}, any number may be
+     * outstanding at once.
+     * @param timestamp Epoch milliseconds for the LOAN_TAKEN posting.
+     */
+    void openLoan(Loan loan, long timestamp) {
+        getTransactionHistory().append(Transaction.Type.LOAN_TAKEN, loan.principal, timestamp, "Scheduled Loan");
+        balance += loan.principal;
+        loanAmount += loan.principal;
+        attachLoan(loan);
+    }
+
+    /**
+     * Collects a loan's next installment: accrues the month's interest on the
+     * outstanding principal (a LOAN_INTEREST posting, which adds to the loan
+     * amount but not the balance) and then takes the payment (LOAN_REPAYMENT).
+     * A loan that is paid off is dropped from {@link #getLoans()}.
+     * @param timestamp Epoch milliseconds for both postings.
+     * @return The payment taken, or 0 if the balance does not cover it.
+     */
+    long payInstallment(Loan loan, long timestamp) {
+        long interest = loan.interestDue();
+        long payment = loan.paymentDue(interest);
+        if (balance < payment) return 0;
+        TransactionHistory history = getTransactionHistory();
+        if (interest > 0) {
+            history.append(Transaction.Type.LOAN_INTEREST, interest, timestamp, "Scheduled Loan Interest");
+            loanAmount += interest;
+        }
+        history.append(Transaction.Type.LOAN_REPAYMENT, payment, timestamp, "Scheduled Loan Installment");
+        balance -= payment;
+        loanAmount = Math.max(0, loanAmount - payment);
+        loan.recordPayment(interest, payment);
+        if (loan.isPaidOff()) {
+            Loan[] remaining = new Loan[loans.length - 1];
+            int j = 0;
+            for (Loan l : loans) {
+                if (l != loan) remaining[j++] = l;
+            }
+            loans = remaining;
+        }
+        return payment;
+    }
+
+    /**
+     * Moves money to another account as a pair of linked postings: TRANSFER_OUT
+     * here and TRANSFER_IN there, each pointing at the other. Unlike a cash
+     * withdrawal, no fee is charged. Both accounts must be held by the caller.
+     * @param amount The amount to transfer, in cents.
+     * @param timestamp Epoch milliseconds for both legs.
+     * @return true if successful, false if the amount is not positive or not covered by the balance.
+     */
+    boolean transferTo(Account target, long amount, String description, long timestamp) {
+        if (amount <= 0 || amount > balance) return false;
+        TransactionHistory out = getTransactionHistory();
+        TransactionHistory in = target.getTransactionHistory();
+        int outIndex = out.size();
+        int inIndex = in.size();
+        out.appendLinked(Transaction.Type.TRANSFER_OUT, amount, timestamp, description, target.accountNumber, inIndex);
+        in.appendLinked(Transaction.Type.TRANSFER_IN, amount, timestamp, description, accountNumber, outIndex);
+        this.balance -= amount;
+        target.balance += amount;
+        return true;
+    }
+
+    /**
+     * Re-applies a transaction recovered from the journal. The business rules
+     * already accepted it when it was first posted, so they are not checked again.
+     */
+    void replay(Transaction.Type type, long amount, long timestamp, String description) {
+        switch (type) {
+            case DEPOSIT, INTEREST -> balance += amount;
+            case WITHDRAWAL, FEE -> balance -= amount;
+            case LOAN_TAKEN -> {
+                balance += amount;
+                loanAmount += amount;
+            }
+            case LOAN_REPAYMENT -> {
+                balance -= amount;
+                loanAmount = Math.max(0, loanAmount - amount);
+            }
+            case TRANSFER_OUT, TRANSFER_IN -> throw new IllegalStateException("Transfers replay through transferTo");
+            case LOAN_INTEREST -> throw new IllegalStateException("Loan interest replays through payInstallment");
+        }
+        getTransactionHistory().append(type, amount, timestamp, description);
+    }
+}
@@ -0,0 +1,215 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Account lookup by number, keyed by the number as a primitive {@code long}.
+ * <p>
+ * Account numbers are 10 decimal digits, so they fit in a long; hashing and
+ * comparing a long replaces hashing and comparing a String, and each entry
+ * costs a long and a reference in two flat arrays instead of a map node. The
+ * index is split into segments, each an open-addressing table with linear
+ * probing. Writers lock one segment; readers take no lock at all: a slot's
+ * account is stored before its key is published with a release write, and a
+ * reader that sees the key with an acquire read sees the account too. A
+ * segment that fills up is rehashed into a new table that replaces the old
+ * one through a volatile write, so readers still probing the old table see a
+ * complete, if slightly stale, picture. Accounts are never removed.
+ */
+final class AccountIndex {
+
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int INITIAL_SLOTS = 16;
+    private static final long EMPTY = 0; // Keys are stored as number + 1, so 0000000000 is a valid number
+
+    /** One generation of a segment's slots; replaced, never resized in place. */
+    private static final class Table {
+        final long[] keys;
+        final Account[] values;
+        final int mask;
+
+        Table(int slots) {
+            keys = new long[slots];
+            values = new Account[slots];
+            mask = slots - 1;
+        }
+    }
+
+    private static final class Segment {
+        volatile Table table = new Table(INITIAL_SLOTS);
+        volatile int size; // Written under the segment's monitor
+    }
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    /**
+     * @param concurrency Expected number of concurrently writing threads;
+     *                    rounded up to a power of two to size the segments.
+     */
+    AccountIndex(int concurrency) {
+        int count = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment();
+        }
+        segmentShift = 64 - Integer.numberOfTrailingZeros(count);
+    }
+
+    /**
+     * Parses a 10-digit account number.
+     * @return The number, or -1 if the text is not exactly 10 ASCII digits.
+     */
+    static long parse(String accountNumber) {
+        if (accountNumber.length() != 10) return -1;
+        long value = 0;
+        for (int i = 0; i < 10; i++) {
+            char c = accountNumber.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /** @return The account, or null if there is none (or the number is malformed). */
+    Account get(String accountNumber) {
+        long number = parse(accountNumber);
+        return number < 0 ? null : get(number);
+    }
+
+    Account get(long number) {
+        long key = number + 1;
+        long h = mix(key);
+        Table t = segmentFor(h).table;
+        for (int i = (int) h & t.mask; ; i = (i + 1) & t.mask) {
+            long k = (long) KEYS.getAcquire(t.keys, i);
+            if (k == key) return t.values[i];
+            if (k == EMPTY) return null;
+        }
+    }
+
+    /**
+     * Adds an account unless its number is taken.
+     * @return The account already registered under the number, or null if this one was added.
+     * @throws IllegalArgumentException If the account number is not 10 digits.
+     */
+    Account putIfAbsent(Account account) {
+        long number = parse(account.getAccountNumber());
+        if (number < 0) {
+            throw new IllegalArgumentException("Account number must be 10 digits: " + account.getAccountNumber());
+        }
+        long key = number + 1;
+        long h = mix(key);
+        Segment segment = segmentFor(h);
+        synchronized (segment) {
+            Table t = segment.table;
+            int i = (int) h & t.mask;
+            for (long k; (k = t.keys[i]) != EMPTY; i = (i + 1) & t.mask) {
+                if (k == key) return t.values[i];
+            }
+            if ((segment.size + 1) * 4 > t.keys.length * 3) { // Keep load at or below 75%
+                t = segment.table = grow(t);
+                i = (int) h & t.mask;
+                while (t.keys[i] != EMPTY) {
+                    i = (i + 1) & t.mask;
+                }
+            }
+            t.values[i] = account;
+            KEYS.setRelease(t.keys, i, key); // Publishes the account with the key
+            segment.size = segment.size + 1;
+            return null;
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /** A live, unmodifiable view; iteration is weakly consistent, like a concurrent map's. */
+    Collection<Account> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Account> iterator() {
+                return new Values();
+            }
+
+            @Override
+            public int size() {
+                return AccountIndex.this.size();
+            }
+        };
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> segmentShift) & (segments.length - 1)];
+    }
+
+    private static Table grow(Table from) {
+        Table to = new Table(from.keys.length * 2);
+        for (int j = 0; j < from.keys.length; j++) {
+            long key = from.keys[j];
+            if (key == EMPTY) continue;
+            int i = (int) mix(key) & to.mask;
+            while (to.keys[i] != EMPTY) {
+                i = (i + 1) & to.mask;
+            }
+            to.keys[i] = key;
+            to.values[i] = from.values[j];
+        }
+        return to; // Published by the caller's volatile write
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L; // Top bits pick the segment, bottom bits the slot
+        return h ^ (h >>> 29);
+    }
+
+    private final class Values implements Iterator<Account> {
+        private int segment = -1;
+        private Table table;
+        private int slot;
+        private Account next;
+
+        Values() {
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (true) {
+                if (table != null) {
+                    while (slot < table.keys.length) {
+                        int i = slot++;
+                        if ((long) KEYS.getAcquire(table.keys, i) != EMPTY) {
+                            next = table.values[i];
+                            return;
+                        }
+                    }
+                }
+                if (++segment == segments.length) return;
+                table = segments[segment].table;
+                slot = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Account next() {
+            if (next == null) throw new NoSuchElementException();
+            Account account = next;
+            advance();
+            return account;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issues unique 10-digit account numbers in constant time.
+ * <p>
+ * Numbers come from a sequence 0, 1, 2, ... passed through a fixed
+ * format-preserving permutation of {@code [0, 10^10)}: a Feistel network over
+ * the two 5-digit halves. Distinct sequence values give distinct numbers, so
+ * nothing has to be looked up or retried, and consecutive accounts do not get
+ * guessable neighbouring numbers.
+ * <p>
+ * Sequence values are handed out by one shared atomic counter, whichever
+ * thread asks, and leased in blocks of {@value #BLOCK}: the first value past
+ * the current lease extends it under a lock, so bulk onboarding journals once
+ * per block. {@link Ledger} journals every lease and snapshots the lease end,
+ * so after a restart the counter resumes past every value that could have
+ * been issued. Only the rest of the last block before a restart is skipped,
+ * however many threads opened accounts, so the space is used up almost
+ * entirely.
+ */
+final class AccountNumbers {
+
+    static final int BLOCK = 1024;
+    static final long CAPACITY = 10_000_000_000L; // 10 digits
+
+    private static final int HALF = 100_000; // 5 digits
+    private static final long[] ROUND_KEYS = {
+            0x9E3779B97F4A7C15L, 0xBF58476D1CE4E5B9L, 0x94D049BB133111EBL,
+            0xD6E8FEB86659FD93L, 0xA0761D6478BD642FL, 0xE7037ED1A0B428DBL,
+    };
+
+    /** Receives each new lease before any number from it is issued. */
+    interface LeaseListener {
+        /** @param end The sequence value just past the leased block. */
+        void leased(long end);
+    }
+
+    private final AtomicLong next; // Next sequence value to issue
+    private final LeaseListener listener;
+    private volatile long leased; // First sequence value not yet leased; raised under this
+
+    AccountNumbers(long start, LeaseListener listener) {
+        this.next = new AtomicLong(start);
+        this.leased = start;
+        this.listener = listener;
+    }
+
+    /**
+     * @return A 10-digit account number never issued before by this sequence.
+     * @throws IllegalStateException If every number has been issued.
+     */
+    String next() {
+        long sequence = next.getAndIncrement();
+        if (sequence >= CAPACITY) throw new IllegalStateException("Account numbers exhausted");
+        if (sequence >= leased) lease(sequence);
+        return format(permute(sequence));
+    }
+
+    /** Extends the lease past {@code sequence}, telling the listener before the value is issued. */
+    private synchronized void lease(long sequence) {
+        while (sequence >= leased) { // Already done if another thread extended it meanwhile
+            long end = Math.min(leased + BLOCK, CAPACITY);
+            listener.leased(end);
+            leased = end;
+        }
+    }
+
+    /** First sequence value not yet leased; everything below may have been issued. */
+    long position() {
+        return leased;
+    }
+
+    /** Moves the counter and the lease forward to at least {@code position}, e.g. while replaying leases. */
+    synchronized void advanceTo(long position) {
+        next.accumulateAndGet(position, Math::max);
+        leased = Math.max(leased, Math.min(position, CAPACITY));
+    }
+
+    /** The permutation: a balanced Feistel network over two base-10^5 halves. */
+    static long permute(long sequence) {
+        long left = sequence / HALF;
+        long right = sequence % HALF;
+        for (long key : ROUND_KEYS) {
+            long mixed = left + round(right, key);
+            left = right;
+            right = mixed % HALF;
+        }
+        return left * HALF + right;
+    }
+
+    /** Round function: any mix of the half and the key, reduced to 5 digits. */
+    private static long round(long half, long key) {
+        long z = half * 0x9E3779B97F4A7C15L + key;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return ((z ^ (z >>> 31)) >>> 1) % HALF;
+    }
+
+    private static String format(long number) {
+        char[] digits = new char[10];
+        for (int i = 9; i >= 0; i--) {
+            digits[i] = (char) ('0' + number % 10);
+            number /= 10;
+        }
+        return new String(digits);
+    }
+}
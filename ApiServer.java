@@ -0,0 +1,733 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+
+/**
+ * The ledger's operations over HTTP on the loopback interface, for ATM
+ * simulators and load generators.
+ * <p>
+ * Requests carry form-encoded parameters (in the query string or an
+ * {@code application/x-www-form-urlencoded} body) and amounts in rands as the
+ * GUI takes them ({@code amount=12.50}); responses are JSON with amounts as
+ * decimal rands. Logging in returns a bearer token for the other calls:
+ * <pre>
+ * POST /accounts  name, pin, type (SAVINGS or CHECKING) -> 201 {accountNumber, name, type}
+ * POST /login     accountNumber, pin                     -> {token}; 401, 429 (locked out), 503 (busy)
+ * POST /logout
+ * GET  /account                                          -> {accountNumber, name, type, balance, loan} from the read models
+ * GET  /balance   asOf (yyyy-MM-dd)                      -> {accountNumber, asOf, balance} at the end of that day
+ * POST /deposit   amount [description]                   -> {result, balance, loan}
+ * POST /withdraw  amount [description]                   -> 403 DECLINED or 409 HELD by the {@link RiskRules}
+ * POST /loan      amount
+ * POST /repay     amount
+ * POST /loans     amount, term (months) [rate (basis points)] -> 201 {id, installment, firstDue, balance, loan}
+ * GET  /loans                                            -> {accountNumber, loans: [...]} still owing
+ * POST /interest                                         -> {interest, balance}
+ * GET  /history   [from] [limit]                         -> {accountNumber, size, from, transactions: [...]}
+ * GET  /statement from, to (yyyy-MM-dd) [format=csv|text] -> the {@link Statement}, streamed
+ * GET  /metrics   (no token)                             -> the ledger's {@link Metrics} as Prometheus text
+ * </pre>
+ * Refusals come back as {@code {error, message}} with a 4xx status, the error
+ * being the {@link PostingResult} where there is one. A login's
+ * {@code X-Device-Id} header (or its User-Agent) names the client's device
+ * for the new-device rules. Deposits, withdrawals, loans, repayments and
+ * interest sent with an {@code Idempotency-Key} header are posted at most
+ * once per key; a retry gets the first result, or the loan the first call
+ * opened (see {@link IdempotencyCache}).
+ * <p>
+ * Every exchange runs on its own virtual thread where the JDK has them (see
+ * {@link CommandBus#newExecutor}), so a handler waiting on the journal or a
+ * PIN hash costs no platform thread. Connections are kept alive and requests
+ * pipelined on one are served in order. Responses are written with a
+ * {@link JsonWriter} straight into the exchange: a response that fits its
+ * buffer goes out with a Content-Length, and a longer one (a big history) is
+ * streamed chunked without ever being held in memory whole. Deposits and
+ * withdrawals go through a {@link PostingPipeline}, so concurrent requests
+ * share journal waits.
+ * <p>
+ * Started with {@code -Dbank.replication.port}, the server also ships its
+ * journal to {@link Replica}s, and each change returns once
+ * {@code bank.replication.acks} of them (default 1) hold it. After
+ * {@code bank.replication.timeoutMillis} (default 5000) without them a
+ * posting answers 202 UNREPLICATED, as it is made on this server, and
+ * changes are refused with 503 REPLICATION_BEHIND, before anything is
+ * applied, until they catch up. A replica runs this server read-only:
+ * changes are refused with 503 READ_ONLY.
+ */
+final class ApiServer implements AutoCloseable {
+
+    static final int DEFAULT_PORT = 8080;
+    private static final int BACKLOG = 1024;
+    private static final int MAX_BODY_BYTES = 16 * 1024;
+    private static final int INTEREST_BASIS_POINTS = 50; // 0.5%, as the dashboard applies
+    private static final int LOAN_BASIS_POINTS = 1_150; // Yearly rate of a scheduled loan unless one is given
+    private static final long SESSION_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final long TOUCH_MILLIS = 1_000; // Session last-use is refreshed at most this often
+    private static final int SWEEP_ABOVE = 1 << 16; // Open sessions that trigger a sweep on login
+    private static final String JSON = "application/json; charset=utf-8";
+
+    /** Handles one request; throws {@link ApiException} to refuse it. */
+    private interface Handler {
+        void handle(Exchange exchange) throws IOException, ApiException;
+    }
+
+    /** A ledger call that moves an amount on the caller's account. */
+    private interface Posting {
+        /** @param key The request's Idempotency-Key, or null. */
+        PostingResult post(String accountNumber, long amount, String key) throws ApiException;
+    }
+
+    /** A refusal, sent to the client as {@code {error, message}}. */
+    private static final class ApiException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+        final String error;
+
+        ApiException(int status, String error, String message) {
+            super(message, null, false, false); // Control flow, not a fault: no stack trace
+            this.status = status;
+            this.error = error;
+        }
+    }
+
+    private static final class Session {
+        final String accountNumber;
+        volatile long lastUsed;
+
+        Session(String accountNumber, long now) {
+            this.accountNumber = accountNumber;
+            this.lastUsed = now;
+        }
+    }
+
+    private final Ledger ledger;
+    private final AuthService authService;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean readOnly;
+    private final PostingPipeline pipeline; // null if read-only
+    private final Map<String, Map<String, Handler>> routes = new HashMap<>(); // Path -> method -> handler
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    ApiServer(Ledger ledger, int port) throws IOException {
+        this(ledger, new AuthService(ledger), new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    ApiServer(Ledger ledger, AuthService authService, InetSocketAddress address) throws IOException {
+        this(ledger, authService, address, false);
+    }
+
+    /**
+     * @param readOnly For a {@link Replica}'s ledger: serve logins and reads,
+     *                 and refuse every change with 503 READ_ONLY.
+     */
+    ApiServer(Ledger ledger, AuthService authService, InetSocketAddress address, boolean readOnly)
+            throws IOException {
+        this.ledger = ledger;
+        this.authService = authService;
+        this.readOnly = readOnly;
+        this.server = HttpServer.create(address, BACKLOG);
+        this.executor = CommandBus.newExecutor("api");
+        server.setExecutor(executor);
+        ledger.readModels();
+        this.pipeline = readOnly ? null : new PostingPipeline(ledger);
+
+        change("/accounts", this::createAccount);
+        route("POST", "/login", this::login);
+        route("POST", "/logout", this::logout);
+        route("GET", "/account", this::account);
+        route("GET", "/balance", this::balanceAsOf);
+        change("/deposit", ex -> posting(ex, (number, amount, key) ->
+                pipeline.deposit(number, amount, ex.description("API Deposit"), key)));
+        change("/withdraw", ex -> posting(ex, (number, amount, key) ->
+                pipeline.withdraw(number, amount, ex.description("API Withdrawal"), key)));
+        change("/loan", ex -> posting(ex, ledger::takeLoan));
+        change("/repay", ex -> posting(ex, ledger::repayLoan));
+        change("/interest", this::interest);
+        change("/loans", this::openLoan);
+        route("GET", "/loans", this::loans);
+        route("GET", "/history", this::history);
+        route("GET", "/statement", this::statement);
+        route("GET", "/metrics", this::metrics);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    @Override
+    public void close() {
+        server.stop(1); // Seconds allowed for exchanges in flight
+        executor.shutdown();
+        if (pipeline != null) pipeline.close();
+        authService.close();
+    }
+
+    // --- Handlers ---
+
+    private void createAccount(Exchange ex) throws IOException, ApiException {
+        String name = ex.required("name").trim();
+        String pin = ex.required("pin");
+        if (name.isEmpty()) throw new ApiException(400, "INVALID_NAME", "Name cannot be empty.");
+        if (name.length() > Ledger.MAX_TEXT_LENGTH) throw new ApiException(400, "INVALID_NAME", "Name is too long.");
+        if (!pin.matches("\\d{4}")) throw new ApiException(400, "INVALID_PIN", "PIN must be a 4-digit number.");
+        Account.AccountType type;
+        try {
+            type = Account.AccountType.valueOf(ex.required("type").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, "INVALID_TYPE", "Type must be SAVINGS or CHECKING.");
+        }
+
+        Account account;
+        try {
+            account = authService.openAccount(name, pin, type).join();
+        } catch (RejectedExecutionException e) {
+            throw busy();
+        }
+        JsonWriter json = ex.respond(201);
+        json.beginObject()
+                .name("accountNumber").value(account.getAccountNumber())
+                .name("name").value(account.getAccountHolderName())
+                .name("type").value(account.getType().name())
+                .endObject();
+        json.close();
+    }
+
+    private void login(Exchange ex) throws IOException, ApiException {
+        String accountNumber = ex.required("accountNumber");
+        AuthService.Result result = authService.login(accountNumber, ex.required("pin"), device(ex)).join();
+        switch (result.outcome) {
+            case SUCCESS -> {
+                long now = System.currentTimeMillis();
+                if (sessions.size() > SWEEP_ABOVE) {
+                    sessions.values().removeIf(s -> now - s.lastUsed > SESSION_IDLE_MILLIS);
+                }
+                String token = newToken();
+                sessions.put(token, new Session(accountNumber, now));
+                JsonWriter json = ex.respond(200);
+                json.beginObject().name("token").value(token).endObject();
+                json.close();
+            }
+            case INVALID_CREDENTIALS ->
+                    throw new ApiException(401, "INVALID_CREDENTIALS", "Incorrect account number or PIN.");
+            case LOCKED_OUT -> {
+                ex.http.getResponseHeaders().set("Retry-After",
+                        Long.toString(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(result.retryAfterMillis))));
+                throw new ApiException(429, "LOCKED_OUT", "Too many failed attempts.");
+            }
+            case BUSY -> throw busy();
+        }
+    }
+
+    /** The client's X-Device-Id, or failing that its User-Agent, for the new-device risk rules. */
+    private static String device(Exchange ex) {
+        String device = ex.http.getRequestHeaders().getFirst("X-Device-Id");
+        if (device == null) device = ex.http.getRequestHeaders().getFirst("User-Agent");
+        return device != null ? device : "";
+    }
+
+    private void logout(Exchange ex) throws IOException, ApiException {
+        ex.authenticate();
+        sessions.remove(ex.token);
+        ex.respond(204).close();
+    }
+
+    private void account(Exchange ex) throws IOException, ApiException {
+        ex.authenticate();
+        Account account = ex.account();
+        ReadModels views = ledger.readModels(); // May trail a posting in flight; postings report their own balance
+        JsonWriter json = ex.respond(200);
+        json.beginObject()
+                .name("accountNumber").value(account.getAccountNumber())
+                .name("name").value(account.getAccountHolderName())
+                .name("type").value(account.getType().name())
+                .name("balance").money(views.balances.get(account.getAccountNumber()).balance)
+                .name("loan").money(views.loans.get(account.getAccountNumber()).outstanding)
+                .endObject();
+        json.close();
+    }
+
+    private void balanceAsOf(Exchange ex) throws IOException, ApiException {
+        ex.authenticate();
+        LocalDate asOf;
+        try {
+            asOf = LocalDate.parse(ex.required("asOf"));
+        } catch (DateTimeParseException e) {
+            throw new ApiException(400, "INVALID_PARAMETER", "asOf must be yyyy-MM-dd.");
+        }
+        TransactionHistory history = ledger.getTransactionHistory(ex.accountNumber);
+        if (history == null) throw new ApiException(404, PostingResult.ACCOUNT_NOT_FOUND.name(), null);
+        JsonWriter json = ex.respond(200);
+        json.beginObject()
+                .name("accountNumber").value(ex.accountNumber)
+                .name("asOf").value(asOf.toString())
+                .name("balance").money(history.balanceAsOf(Statement.startOf(asOf.plusDays(1))))
+                .endObject();
+        json.close();
+    }
+
+    private void posting(Exchange ex, Posting posting) throws IOException, ApiException {
+        ex.authenticate();
+        PostingResult result = posting.post(ex.accountNumber, ex.amount(), ex.idempotencyKey());
+        if (!result.isSuccess()) {
+            int status = switch (result) {
+                case ACCOUNT_NOT_FOUND -> 404;
+                case INVALID_AMOUNT -> 400;
+                case DECLINED -> 403;
+                case REPLICATION_BEHIND -> 503;
+                default -> 409;
+            };
+            throw new ApiException(status, result.name(), switch (result) {
+                case DECLINED -> "Declined by the account's limits.";
+                case HELD -> "Held for review; nothing was withdrawn.";
+                case REPLICATION_BEHIND -> "Replication is behind; nothing was posted. Please try again shortly.";
+                default -> null;
+            });
+        }
+        Account account = ex.account();
+        JsonWriter json = ex.respond(result == PostingResult.UNREPLICATED ? 202 : 200); // Posted, not on a follower yet
+        json.beginObject()
+                .name("result").value(result.name())
+                .name("balance").money(account.getBalance())
+                .name("loan").money(account.getLoanAmount())
+                .endObject();
+        json.close();
+    }
+
+    private void interest(Exchange ex) throws IOException, ApiException {
+        ex.authenticate();
+        Account account = ex.account();
+        if (account.getType() != Account.AccountType.SAVINGS) {
+            throw new ApiException(409, "NOT_SAVINGS", "Interest can only be applied to Savings accounts.");
+        }
+        long interest = ledger.applyInterest(ex.accountNumber, INTEREST_BASIS_POINTS, ex.idempotencyKey());
+        JsonWriter json = ex.respond(200);
+        json.beginObject()
+                .name("interest").money(interest)
+                .name("balance").money(account.getBalance())
+                .endObject();
+        json.close();
+    }
+
+    private void openLoan(Exchange ex) throws IOException, ApiException {
+        ex.authenticate();
+        Loan loan;
+        try {
+            loan = ledger.openLoan(ex.accountNumber, ex.amount(), ex.intParam("rate", LOAN_BASIS_POINTS),
+                    ex.intParam("term", 0), ex.idempotencyKey());
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, "INVALID_TERMS", "Need a positive term in months and a rate of 0 or more.");
+        }
+        if (loan == null) throw new ApiException(404, PostingResult.ACCOUNT_NOT_FOUND.name(), null);
+        Account account = ex.account();
+        JsonWriter json = ex.respond(201);
+        json.beginObject()
+                .name("id").value(loan.id)
+                .name("installment").money(loan.installment)
+                .name("firstDue").value(LocalDate.ofEpochDay(loan.firstDueDay).toString())
+                .name("balance").money(account.getBalance())
+                .name("loan").money(account.getLoanAmount())
+                .endObject();
+        json.close();
+    }
+
+    private void loans(Exchange ex) throws IOException, ApiException {
+        ex.authenticate();
+        Account account = ex.account();
+        JsonWriter json = ex.respond(200);
+        json.beginObject()
+                .name("accountNumber").value(ex.accountNumber)
+                .name("loans").beginArray();
+        for (Loan loan : account.getLoans()) {
+            json.beginObject()
+                    .name("id").value(loan.id)
+                    .name("principal").money(loan.principal)
+                    .name("rate").value(loan.annualRateBasisPoints)
+                    .name("term").value(loan.termMonths)
+                    .name("installment").money(loan.installment)
+                    .name("paid").value(loan.getPaidInstallments())
+                    .name("outstanding").money(loan.getOutstanding())
+                    .name("nextDue").value(LocalDate.ofEpochDay(loan.dueDay()).toString())
+                    .endObject();
+        }
+        json.endArray().endObject();
+        json.close();
+    }
+
+    private void history(Exchange ex) throws IOException, ApiException {
+        ex.authenticate();
+        TransactionHistory history = ledger.getTransactionHistory(ex.accountNumber);
+        if (history == null) throw new ApiException(404, PostingResult.ACCOUNT_NOT_FOUND.name(), null);
+        int size = history.size(); // Rows below this are stable while others keep posting
+        int from = ex.intParam("from", 0);
+        int limit = ex.intParam("limit", Integer.MAX_VALUE);
+        if (from < 0 || limit < 0) throw new ApiException(400, "INVALID_RANGE", "from and limit must not be negative.");
+        int to = (int) Math.min(size, (long) from + limit);
+
+        JsonWriter json = ex.respond(200);
+        json.beginObject()
+                .name("accountNumber").value(ex.accountNumber)
+                .name("size").value(size)
+                .name("from").value(from)
+                .name("transactions").beginArray();
+        for (int i = from; i < to; i++) {
+            Transaction.Type type = history.typeAt(i);
+            json.beginObject()
+                    .name("index").value(i)
+                    .name("timestamp").value(history.timestampAt(i))
+                    .name("type").value(type.name())
+                    .name("amount").money(history.amountAt(i))
+                    .name("description").value(history.descriptionAt(i));
+            if (type.isTransfer()) {
+                json.name("counterpart").value(history.counterpartAt(i));
+            }
+            json.endObject();
+        }
+        json.endArray().endObject();
+        json.close();
+    }
+
+    private void statement(Exchange ex) throws IOException, ApiException {
+        ex.authenticate();
+        Account account = ex.account();
+        LocalDate from;
+        LocalDate to;
+        Statement.Format format;
+        try {
+            from = LocalDate.parse(ex.required("from"));
+            to = LocalDate.parse(ex.required("to"));
+            format = Statement.Format.valueOf(ex.param("format", "csv").toUpperCase(Locale.ROOT));
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            throw new ApiException(400, "INVALID_PARAMETER", "Need from and to as yyyy-MM-dd and format csv or text.");
+        }
+        TransactionHistory history = ledger.getTransactionHistory(ex.accountNumber);
+        String contentType = format == Statement.Format.CSV ? "text/csv; charset=utf-8" : "text/plain; charset=utf-8";
+        try (WritableByteChannel out = Channels.newChannel(ex.stream(200, contentType))) {
+            Statement.export(account, history, Statement.startOf(from), Statement.startOf(to.plusDays(1)), format, out);
+        }
+    }
+
+    private void metrics(Exchange ex) throws IOException {
+        StringBuilder text = ledger.getMetrics().appendText(new StringBuilder(4096));
+        try (OutputStream out = ex.stream(200, "text/plain; version=0.0.4; charset=utf-8")) {
+            out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // --- Plumbing ---
+
+    /** Registers a handler; a path can have one per method. Call from the constructor only. */
+    private void route(String method, String path, Handler handler) {
+        Map<String, Handler> methods = routes.get(path);
+        if (methods == null) {
+            Map<String, Handler> byMethod = new LinkedHashMap<>();
+            routes.put(path, byMethod);
+            server.createContext(path, http -> dispatch(path, byMethod, http));
+            methods = byMethod;
+        }
+        methods.put(method, handler);
+    }
+
+    private void dispatch(String path, Map<String, Handler> methods, HttpExchange http) throws IOException {
+        Exchange ex = new Exchange(http);
+        try {
+            if (!path.equals(http.getRequestURI().getPath())) {
+                throw new ApiException(404, "NOT_FOUND", null);
+            }
+            Handler handler = methods.get(http.getRequestMethod());
+            if (handler == null) {
+                http.getResponseHeaders().set("Allow", String.join(", ", methods.keySet()));
+                throw new ApiException(405, "METHOD_NOT_ALLOWED", null);
+            }
+            ex.readParams();
+            handler.handle(ex);
+        } catch (ApiException e) {
+            ex.error(e.status, e.error, e.getMessage());
+        } catch (RuntimeException e) {
+            ex.error(500, "INTERNAL_ERROR", null); // e.g. the journal could not be written
+        } finally {
+            http.close();
+        }
+    }
+
+    /**
+     * Routes a POST that changes the ledger; refused on a read-only server,
+     * and while followers are behind, before anything is applied.
+     */
+    private void change(String path, Handler handler) {
+        route("POST", path, readOnly ? ex -> {
+            throw new ApiException(503, "READ_ONLY", "This server is a read-only replica; send changes to the leader.");
+        } : ex -> {
+            if (ledger.replicationBehind()) {
+                throw new ApiException(503, PostingResult.REPLICATION_BEHIND.name(),
+                        "Replication is behind; nothing was changed. Please try again shortly.");
+            }
+            handler.handle(ex);
+        });
+    }
+
+    private static ApiException busy() {
+        return new ApiException(503, "BUSY", "The bank is busy. Please try again in a moment.");
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[18];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /** One request and its response. */
+    private final class Exchange {
+        final HttpExchange http;
+        private Map<String, String> params = Map.of();
+        private ResponseBody response;
+        String token;
+        String accountNumber; // Set by authenticate()
+
+        Exchange(HttpExchange http) {
+            this.http = http;
+        }
+
+        String param(String name, String fallback) {
+            return params.getOrDefault(name, fallback);
+        }
+
+        String description(String fallback) throws ApiException {
+            String description = param("description", fallback);
+            if (description.length() > Ledger.MAX_TEXT_LENGTH) {
+                throw new ApiException(400, "INVALID_PARAMETER", "Description is too long.");
+            }
+            return description;
+        }
+
+        String required(String name) throws ApiException {
+            String value = params.get(name);
+            if (value == null) throw new ApiException(400, "MISSING_PARAMETER", "Missing parameter: " + name);
+            return value;
+        }
+
+        int intParam(String name, int fallback) throws ApiException {
+            String value = params.get(name);
+            if (value == null) return fallback;
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new ApiException(400, "INVALID_PARAMETER", "Not a number: " + name);
+            }
+        }
+
+        long amount() throws ApiException {
+            try {
+                return Money.parse(required("amount"));
+            } catch (NumberFormatException e) {
+                throw new ApiException(400, PostingResult.INVALID_AMOUNT.name(), "Invalid amount.");
+            }
+        }
+
+        /** The Idempotency-Key header, or null if the request has none. */
+        String idempotencyKey() throws ApiException {
+            String key = http.getRequestHeaders().getFirst("Idempotency-Key");
+            try {
+                IdempotencyCache.checkKey(key);
+            } catch (IllegalArgumentException e) {
+                throw new ApiException(400, "INVALID_PARAMETER", e.getMessage() + ".");
+            }
+            return key;
+        }
+
+        Account account() throws ApiException {
+            Account account = ledger.getAccount(accountNumber);
+            if (account == null) throw new ApiException(404, PostingResult.ACCOUNT_NOT_FOUND.name(), null);
+            return account;
+        }
+
+        /** Resolves the bearer token to its session's account number. */
+        void authenticate() throws ApiException {
+            String header = http.getRequestHeaders().getFirst("Authorization");
+            if (header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7)) {
+                throw new ApiException(401, "UNAUTHORIZED", "Log in and send the token as a Bearer token.");
+            }
+            token = header.substring(7).trim();
+            Session session = sessions.get(token);
+            long now = System.currentTimeMillis();
+            if (session == null || now - session.lastUsed > SESSION_IDLE_MILLIS) {
+                if (session != null) sessions.remove(token, session);
+                throw new ApiException(401, "UNAUTHORIZED", "The session has ended or expired. Log in again.");
+            }
+            if (now - session.lastUsed > TOUCH_MILLIS) session.lastUsed = now;
+            accountNumber = session.accountNumber;
+        }
+
+        /** Parses the query string and, for a form body, the body; a body parameter wins. */
+        void readParams() throws IOException, ApiException {
+            Map<String, String> map = new HashMap<>();
+            parseForm(http.getRequestURI().getRawQuery(), map);
+            String contentType = http.getRequestHeaders().getFirst("Content-Type");
+            byte[] body = http.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) throw new ApiException(413, "BODY_TOO_LARGE", null);
+            if (body.length > 0 && (contentType == null
+                    || contentType.startsWith("application/x-www-form-urlencoded"))) {
+                parseForm(new String(body, StandardCharsets.UTF_8), map);
+            }
+            params = map;
+        }
+
+        private void parseForm(String form, Map<String, String> into) throws ApiException {
+            if (form == null || form.isEmpty()) return;
+            try {
+                for (int start = 0; start <= form.length(); ) {
+                    int end = form.indexOf('&', start);
+                    if (end < 0) end = form.length();
+                    int eq = form.indexOf('=', start);
+                    if (end > start) {
+                        if (eq < 0 || eq > end) {
+                            into.put(URLDecoder.decode(form.substring(start, end), StandardCharsets.UTF_8), "");
+                        } else {
+                            into.put(URLDecoder.decode(form.substring(start, eq), StandardCharsets.UTF_8),
+                                    URLDecoder.decode(form.substring(eq + 1, end), StandardCharsets.UTF_8));
+                        }
+                    }
+                    start = end + 1;
+                }
+            } catch (IllegalArgumentException e) {
+                throw new ApiException(400, "INVALID_PARAMETER", "Malformed form encoding.");
+            }
+        }
+
+        /** Starts a JSON response; close the writer to finish it. */
+        JsonWriter respond(int status) {
+            response = new ResponseBody(http, status, JSON);
+            JsonWriter json = new JsonWriter(response);
+            response.writer = json;
+            return json;
+        }
+
+        /** Starts a chunked response of any other type; close the stream to finish it. */
+        OutputStream stream(int status, String contentType) {
+            response = new ResponseBody(http, status, contentType);
+            return response;
+        }
+
+        void error(int status, String error, String message) throws IOException {
+            if (response != null && response.started) return; // Too late: the client sees a cut-off body
+            JsonWriter json = respond(status);
+            json.beginObject().name("error").value(error);
+            if (message != null) json.name("message").value(message);
+            json.endObject();
+            json.close();
+        }
+    }
+
+    /**
+     * The exchange's body, opened lazily: if the whole response is still in the
+     * writer's buffer when it closes, it is sent with a Content-Length;
+     * otherwise (or without a writer) the first write starts a chunked response.
+     */
+    private static final class ResponseBody extends OutputStream {
+        private final HttpExchange http;
+        private final int status;
+        private final String contentType;
+        JsonWriter writer; // Whose buffer is drained into this body, if any
+        boolean started;
+        private OutputStream body;
+
+        ResponseBody(HttpExchange http, int status, String contentType) {
+            this.http = http;
+            this.status = status;
+            this.contentType = contentType;
+        }
+
+        private void start(long length) throws IOException {
+            Headers headers = http.getResponseHeaders();
+            if (status != 204) headers.set("Content-Type", contentType);
+            http.sendResponseHeaders(status, length);
+            started = true;
+            body = http.getResponseBody();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!started) start(0);
+            body.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!started) start(writer != null && writer.isClosed() ? len : 0); // The whole response, or the first of several chunks
+            body.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!started) start(-1); // No body at all
+            body.close();
+        }
+    }
+
+    /**
+     * Serves the API until the process is stopped.
+     * Usage: {@code java ApiServer [port]}
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        Ledger ledger = Ledger.open(Paths.get(System.getProperty("bank.journal", "bank.journal")),
+                Paths.get(System.getProperty("bank.snapshot", "bank.snapshot")));
+        ledger.scheduleSnapshots(5, TimeUnit.MINUTES);
+        if (Boolean.parseBoolean(System.getProperty("bank.riskRules", "true"))) { // Load tests may turn them off
+            ledger.setRiskRules(RiskRules.defaults());
+        }
+        Integer replicationPort = Integer.getInteger("bank.replication.port");
+        if (replicationPort != null) { // Followers: java Replica <port>
+            ledger.replicateTo(replicationPort, Integer.getInteger("bank.replication.acks", 1),
+                    Long.getLong("bank.replication.timeoutMillis", ReplicationLeader.DEFAULT_TIMEOUT_MILLIS));
+        }
+        try {
+            ledger.getMetrics().registerMBean("ApiServer");
+        } catch (JMException e) {
+            System.err.println("Metrics not published over JMX: " + e.getMessage());
+        }
+        ApiServer api = new ApiServer(ledger, port);
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            api.close();
+            try {
+                ledger.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the journal: " + e.getMessage());
+            }
+            stopped.countDown();
+        }, "api-shutdown"));
+        api.start();
+        System.out.println("Listening on http://" + api.getAddress().getHostString() + ":" + api.getAddress().getPort());
+        stopped.await();
+    }
+}
@@ -0,0 +1,181 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies PINs against the salted hashes stored on accounts (see {@link Pins}).
+ * <p>
+ * Hashing runs on a fixed pool with a bounded queue, so neither the UI thread
+ * nor a login storm can be tied up by hash work: calls return a future at once,
+ * and when the queue is full they complete with {@link Outcome#BUSY} instead
+ * of queueing without bound.
+ * <p>
+ * Failed attempts are counted per account number in an in-memory cache whose
+ * entries expire a fixed time after their last write. After
+ * {@value #MAX_FAILURES} failures within that time the account number is
+ * locked out until the entry expires. Attempts still being hashed count
+ * against the limit, so a burst of parallel guesses cannot slip past it, and a
+ * locked-out or throttled attempt is refused before any hashing, so brute
+ * force costs the service almost nothing. Unknown account numbers are hashed
+ * and throttled the same way, so timing does not reveal which numbers exist.
+ */
+final class AuthService implements AutoCloseable {
+
+    static final int MAX_FAILURES = 5;
+    static final long LOCKOUT_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int SWEEP_ABOVE = 1 << 20; // Tracked account numbers that trigger an early sweep
+    private static final long EARLY_SWEEP_MILLIS = 1_000; // At most one early sweep this often
+
+    enum Outcome { SUCCESS, INVALID_CREDENTIALS, LOCKED_OUT, BUSY }
+
+    /** Outcome of a login; {@code account} is set only on success. */
+    static final class Result {
+        final Outcome outcome;
+        final Account account;
+        final long retryAfterMillis; // For LOCKED_OUT: time until the lockout expires
+
+        private Result(Outcome outcome, Account account, long retryAfterMillis) {
+            this.outcome = outcome;
+            this.account = account;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+
+    /** Recent failures of one account number; replaced, never mutated. */
+    private static final class Attempts {
+        final int failures;
+        final int inFlight;
+        final long expiresAt; // Millis; LOCKOUT_MILLIS after the last failure
+
+        Attempts(int failures, int inFlight, long expiresAt) {
+            this.failures = failures;
+            this.inFlight = inFlight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final String DUMMY_CREDENTIAL = Pins.hash("0000"); // Verified for unknown accounts
+
+    private final Ledger ledger;
+    private final ThreadPoolExecutor pool;
+    private final ScheduledExecutorService sweeper;
+    private final ConcurrentHashMap<String, Attempts> attempts = new ConcurrentHashMap<>();
+    private final AtomicLong nextEarlySweep = new AtomicLong(); // Millis
+
+    AuthService(Ledger ledger) {
+        this(ledger, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads Hashing threads; logins beyond what they and the queue hold are refused as BUSY.
+     */
+    AuthService(Ledger ledger, int threads) {
+        this.ledger = ledger;
+        AtomicInteger counter = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), r -> {
+            Thread t = new Thread(r, "auth-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "auth-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::evictExpired, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Checks a PIN for an account. Never blocks on hashing; the future completes
+     * on a pool thread (or at once if the attempt is refused).
+     * @param device Identifies the client logging in; a success is reported to
+     *               {@link Ledger#recordLogin} for the new-device risk rules.
+     */
+    CompletableFuture<Result> login(String accountNumber, String pin, String device) {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        long[] lockedUntil = { 0 };
+        attempts.compute(accountNumber, (number, a) -> {
+            if (a == null || a.expiresAt <= now && a.inFlight == 0) a = new Attempts(0, 0, 0);
+            if (a.failures + a.inFlight >= MAX_FAILURES) {
+                lockedUntil[0] = Math.max(a.expiresAt, now + 1);
+                return a;
+            }
+            return new Attempts(a.failures, a.inFlight + 1, a.expiresAt);
+        });
+        if (lockedUntil[0] != 0) {
+            ledger.getMetrics().record(Metrics.Op.LOGIN, Outcome.LOCKED_OUT, start);
+            return CompletableFuture.completedFuture(new Result(Outcome.LOCKED_OUT, null, lockedUntil[0] - now));
+        }
+        if (attempts.size() > SWEEP_ABOVE) sweepEarly(now);
+
+        try {
+            return CompletableFuture.supplyAsync(() -> verify(accountNumber, pin, device, start), pool);
+        } catch (RejectedExecutionException e) {
+            attempts.computeIfPresent(accountNumber,
+                    (number, a) -> new Attempts(a.failures, a.inFlight - 1, a.expiresAt)); // Not a failure
+            ledger.getMetrics().record(Metrics.Op.LOGIN, Outcome.BUSY, start);
+            return CompletableFuture.completedFuture(new Result(Outcome.BUSY, null, 0));
+        }
+    }
+
+    /**
+     * Hashes a new account's PIN on the pool and opens the account.
+     * @throws RejectedExecutionException at once if the pool's queue is full.
+     */
+    CompletableFuture<Account> openAccount(String accountHolderName, String pin, Account.AccountType type) {
+        return CompletableFuture.supplyAsync(() -> Pins.hash(pin), pool)
+                .thenApply(credential -> ledger.openAccountWithCredential(accountHolderName, credential, type));
+    }
+
+    /** @param start {@link System#nanoTime()} when the login came in, so its time queued counts. */
+    private Result verify(String accountNumber, String pin, String device, long start) {
+        boolean ok = false;
+        Account account = null;
+        try {
+            account = ledger.getAccount(accountNumber);
+            ok = Pins.verify(pin, account != null ? account.getPinHash() : DUMMY_CREDENTIAL) && account != null;
+            if (ok) ledger.recordLogin(accountNumber, device);
+        } finally {
+            release(accountNumber, ok);
+            ledger.getMetrics().record(Metrics.Op.LOGIN, ok ? Outcome.SUCCESS : Outcome.INVALID_CREDENTIALS, start);
+        }
+        return ok ? new Result(Outcome.SUCCESS, account, 0) : new Result(Outcome.INVALID_CREDENTIALS, null, 0);
+    }
+
+    /** Ends an in-flight attempt: success forgets past failures, failure records one. */
+    private void release(String accountNumber, boolean success) {
+        long now = System.currentTimeMillis();
+        attempts.computeIfPresent(accountNumber, (number, a) -> {
+            int inFlight = a.inFlight - 1;
+            if (success) return inFlight == 0 ? null : new Attempts(0, inFlight, 0);
+            return new Attempts(a.failures + 1, inFlight, now + LOCKOUT_MILLIS);
+        });
+    }
+
+    /** Sweeps from a login when the cache has grown large, but not on every login: a sweep scans it all. */
+    private void sweepEarly(long now) {
+        long next = nextEarlySweep.get();
+        if (now >= next && nextEarlySweep.compareAndSet(next, now + EARLY_SWEEP_MILLIS)) evictExpired();
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        attempts.values().removeIf(a -> a.expiresAt <= now && a.inFlight == 0);
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,126 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Runs UI commands (postings, loans, interest) off the Swing event thread.
+ * <p>
+ * Each command runs on its own virtual thread when the JDK has them (21+),
+ * otherwise on a cached pool of daemon threads, so a command blocked on the
+ * journal or a slow backend never holds up painting or another command.
+ * {@link #submit} returns a future at once; continuations chained with
+ * {@link #EDT} run back on the event thread via
+ * {@link SwingUtilities#invokeLater}.
+ * <p>
+ * Repaints are coalesced with {@link Refresh}: any number of requests made
+ * before a pending refresh runs are served by that one refresh, and refreshes
+ * run at most once per {@value #FRAME_MILLIS} ms, so a burst of completions
+ * cannot flood the event queue. Each refresh is timed as
+ * {@link Metrics.Op#UI_REFRESH}.
+ */
+final class CommandBus implements AutoCloseable {
+
+    static final int FRAME_MILLIS = 16; // About 60 frames per second
+
+    /** Runs continuations on the Swing event thread. */
+    static final Executor EDT = SwingUtilities::invokeLater;
+
+    private final ExecutorService executor;
+
+    CommandBus() {
+        this.executor = newExecutor("command");
+    }
+
+    /**
+     * Runs a command on the bus; never blocks the caller.
+     * @return A future completed with the command's result, or exceptionally if it threw.
+     */
+    <T> CompletableFuture<T> submit(Supplier<T> command) {
+        return CompletableFuture.supplyAsync(command, executor);
+    }
+
+    /**
+     * A virtual-thread-per-task executor if the runtime has one; otherwise a
+     * cached pool of daemon threads named {@code <name>-<n>}.
+     */
+    static ExecutorService newExecutor(String name) {
+        try { // Looked up reflectively so the app still builds and runs on Java 17
+            return (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                            MethodType.methodType(ExecutorService.class))
+                    .invoke();
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not create the " + name + " executor", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS); // Let commands in flight reach the journal
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A UI update that runs on the event thread at most once per frame, however
+     * often it is requested. {@link #request} may be called from any thread.
+     */
+    static final class Refresh {
+        private final Runnable update;
+        private final Metrics metrics;
+        private final AtomicBoolean pending = new AtomicBoolean();
+        private final Timer timer; // Fires the deferred update when the last one ran under a frame ago
+        private long lastRunNanos; // Event thread only
+
+        Refresh(Runnable update, Metrics metrics) {
+            this.update = update;
+            this.metrics = metrics;
+            this.timer = new Timer(FRAME_MILLIS, e -> run());
+            timer.setRepeats(false);
+            this.lastRunNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(FRAME_MILLIS);
+        }
+
+        /** Schedules the update unless one is already pending. */
+        void request() {
+            if (pending.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(this::schedule);
+            }
+        }
+
+        private void schedule() {
+            long waitMillis = FRAME_MILLIS - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastRunNanos);
+            if (waitMillis <= 0) {
+                run();
+            } else {
+                timer.setInitialDelay((int) waitMillis);
+                timer.restart();
+            }
+        }
+
+        private void run() {
+            pending.set(false); // Requests from here on get a later refresh
+            lastRunNanos = System.nanoTime();
+            update.run();
+            metrics.record(Metrics.Op.UI_REFRESH, lastRunNanos);
+        }
+    }
+}
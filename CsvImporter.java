@@ -0,0 +1,564 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streaming import of settlement files (salaries, debit orders, card
+ * settlements) into the ledger.
+ * <p>
+ * Each line is {@code accountNumber,type,amount,description}: a 10-digit
+ * account number, {@code DEPOSIT} or {@code WITHDRAWAL}, an amount in rands
+ * such as {@code 1500.00}, and an optional description that runs to the end of
+ * the line (it may contain commas, or be double-quoted). A first line that does
+ * not start with a digit is taken as a header.
+ * <p>
+ * One thread reads the file through a {@link FileChannel} and parses rows
+ * straight out of the read buffer into columnar batches, without allocating
+ * per field; recurring descriptions are turned into Strings once. Rows are
+ * routed by account number to a fixed posting worker, so each account's rows
+ * are posted in file order. A worker sorts its batch by account and posts each
+ * account's rows under one acquisition of its stripe, then waits for the
+ * journal once per batch. Batches come from a fixed pool and the queues are
+ * bounded, so a reader that gets ahead of the workers blocks instead of
+ * buffering the file in memory. Each row is posted as the ledger's own
+ * deposits and withdrawals are: withdrawals pass the risk rules and pay the
+ * fee, and every row shows in the ledger's {@link Metrics}.
+ * <p>
+ * Rows that cannot be parsed or posted are written to a reject report
+ * ({@code line,account,reason}); the rest of the file still goes in.
+ */
+final class CsvImporter {
+
+    private static final int BATCH_ROWS = 4096;
+    private static final int BATCHES_PER_WORKER = 4;
+    private static final int READ_BUFFER_BYTES = 1 << 20;
+    private static final String DEFAULT_DESCRIPTION = "Imported Transaction";
+
+    /** Outcome of an import. */
+    static final class Report {
+        final long rows;
+        final long posted;
+        final long rejected;
+        final long elapsedNanos;
+
+        Report(long rows, long posted, long rejected, long elapsedNanos) {
+            this.rows = rows;
+            this.posted = posted;
+            this.rejected = rejected;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        double rowsPerMinute() {
+            return elapsedNanos > 0 ? rows * 60e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Imported %d rows: %d posted, %d rejected, %.1f s, %.0f rows/min",
+                    rows, posted, rejected, elapsedNanos / 1e9, rowsPerMinute());
+        }
+    }
+
+    private final Ledger ledger;
+    private final int workers;
+
+    CsvImporter(Ledger ledger) {
+        this(ledger, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param workers Number of posting threads.
+     */
+    CsvImporter(Ledger ledger, int workers) {
+        if (workers < 1) throw new IllegalArgumentException("workers must be at least 1");
+        this.ledger = ledger;
+        this.workers = workers;
+    }
+
+    /**
+     * Imports {@code csv}, writing rejected rows to {@code rejectReport}
+     * (replaced if it exists). Returns once every accepted row is durable.
+     */
+    Report importFile(Path csv, Path rejectReport) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel in = FileChannel.open(csv, StandardOpenOption.READ);
+             Rejects rejects = new Rejects(Files.newBufferedWriter(rejectReport, StandardCharsets.UTF_8))) {
+            Run run = new Run(rejects);
+            run.start();
+            long rows;
+            try {
+                rows = run.read(in);
+            } finally {
+                run.finish();
+            }
+            return new Report(rows, run.posted.sum(), rejects.count, System.nanoTime() - start);
+        }
+    }
+
+    // --- Batches ---
+
+    /** Parsed rows bound for one worker, column by column; reused through the free pool. */
+    private static final class Batch {
+        final long[] accounts = new long[BATCH_ROWS];
+        final long[] amounts = new long[BATCH_ROWS];
+        final boolean[] withdrawals = new boolean[BATCH_ROWS];
+        final String[] descriptions = new String[BATCH_ROWS];
+        final long[] lines = new long[BATCH_ROWS];
+        final PostingResult[] results = new PostingResult[BATCH_ROWS];
+        final long[] order = new long[BATCH_ROWS]; // account * BATCH_ROWS + row, sorted to group by account
+        int size;
+
+        boolean isFull() {
+            return size == BATCH_ROWS;
+        }
+    }
+
+    /** Tells a worker to stop. */
+    private static final Batch END = new Batch();
+
+    /** One import: the worker threads, their queues and the batch pool. */
+    private final class Run {
+        final Rejects rejects;
+        final BlockingQueue<Batch> free;
+        final List<BlockingQueue<Batch>> queues;
+        final Batch[] filling;
+        final Thread[] threads;
+        final LongAdder posted = new LongAdder();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final DescriptionCache descriptions = new DescriptionCache();
+        AsciiView text; // The read buffer, for Money.parse
+
+        Run(Rejects rejects) {
+            this.rejects = rejects;
+            free = new ArrayBlockingQueue<>(workers * BATCHES_PER_WORKER);
+            for (int i = 0; i < workers * BATCHES_PER_WORKER; i++) {
+                free.add(new Batch());
+            }
+            queues = new ArrayList<>(workers);
+            filling = new Batch[workers];
+            threads = new Thread[workers];
+            for (int i = 0; i < workers; i++) {
+                BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(BATCHES_PER_WORKER + 1); // Room for END
+                queues.add(queue);
+                threads[i] = new Thread(() -> work(queue), "csv-import-" + i);
+            }
+        }
+
+        void start() {
+            for (Thread thread : threads) {
+                thread.start();
+            }
+        }
+
+        /** Reads and parses the whole file. @return The number of data rows. */
+        long read(FileChannel in) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_BYTES);
+            byte[] bytes = buf.array();
+            text = new AsciiView(bytes);
+            long line = 0;
+            long rows = 0;
+            boolean skipping = false; // Inside a line longer than the buffer
+            boolean eof = false;
+            while (!eof) {
+                eof = in.read(buf) < 0;
+                int limit = buf.position();
+                int start = 0;
+                while (true) {
+                    int end = indexOf(bytes, start, limit, (byte) '\n');
+                    if (end < 0) {
+                        if (!eof || start == limit) break;
+                        end = limit; // Last line without a newline
+                    }
+                    line++;
+                    int lineEnd = end > start && bytes[end - 1] == '\r' ? end - 1 : end;
+                    if (skipping) {
+                        rows++;
+                        rejects.add(line, "", "Line too long");
+                        skipping = false;
+                    } else if (lineEnd > start && (line != 1 || isDigit(bytes[start]))) { // Skips blank lines and a header
+                        rows++;
+                        parse(bytes, start, lineEnd, line);
+                    }
+                    start = Math.min(end + 1, limit);
+                    if (end == limit) break;
+                }
+                if (start == 0 && limit == bytes.length) {
+                    // One line fills the buffer: drop it up to its newline, then reject it
+                    skipping = true;
+                    buf.clear();
+                } else {
+                    buf.limit(limit).position(start);
+                    buf.compact();
+                }
+                checkFailure();
+            }
+            if (skipping) {
+                rows++;
+                rejects.add(line + 1, "", "Line too long");
+            }
+            return rows;
+        }
+
+        /** Parses one line into the batch of the worker that owns its account. */
+        void parse(byte[] b, int start, int end, long line) throws IOException {
+            int comma1 = indexOf(b, start, end, (byte) ',');
+            int comma2 = comma1 < 0 ? -1 : indexOf(b, comma1 + 1, end, (byte) ',');
+            if (comma2 < 0) {
+                rejects.add(line, ascii(b, start, comma1 < 0 ? end : comma1), "Expected account,type,amount[,description]");
+                return;
+            }
+            int comma3 = indexOf(b, comma2 + 1, end, (byte) ',');
+            int amountEnd = comma3 < 0 ? end : comma3;
+
+            long account = parseAccountNumber(b, start, comma1);
+            if (account < 0) {
+                rejects.add(line, ascii(b, start, comma1), "Invalid account number");
+                return;
+            }
+            boolean withdrawal;
+            if (equalsIgnoreCase(b, comma1 + 1, comma2, "DEPOSIT")) {
+                withdrawal = false;
+            } else if (equalsIgnoreCase(b, comma1 + 1, comma2, "WITHDRAWAL")) {
+                withdrawal = true;
+            } else {
+                rejects.add(line, ascii(b, start, comma1), "Unknown type: " + ascii(b, comma1 + 1, comma2));
+                return;
+            }
+            long amount;
+            try {
+                amount = Money.parse(text, comma2 + 1, amountEnd);
+            } catch (NumberFormatException e) {
+                rejects.add(line, ascii(b, start, comma1), e.getMessage());
+                return;
+            }
+            if (amount <= 0) {
+                rejects.add(line, ascii(b, start, comma1), "Amount must be positive");
+                return;
+            }
+            if (comma3 >= 0 && end - comma3 - 1 > Ledger.MAX_TEXT_LENGTH * 3) {
+                rejects.add(line, ascii(b, start, comma1), "Description too long");
+                return;
+            }
+            String description = comma3 < 0 ? DEFAULT_DESCRIPTION : descriptions.get(b, comma3 + 1, end);
+            if (description.length() > Ledger.MAX_TEXT_LENGTH) {
+                rejects.add(line, ascii(b, start, comma1), "Description too long");
+                return;
+            }
+
+            int worker = (int) (account % workers);
+            Batch batch = filling[worker];
+            if (batch == null) {
+                batch = filling[worker] = take(free);
+            }
+            int row = batch.size++;
+            batch.accounts[row] = account;
+            batch.amounts[row] = amount;
+            batch.withdrawals[row] = withdrawal;
+            batch.descriptions[row] = description;
+            batch.lines[row] = line;
+            if (batch.isFull()) {
+                put(queues.get(worker), batch);
+                filling[worker] = null;
+            }
+        }
+
+        /** Hands over the partly filled batches, stops the workers and waits for them. */
+        void finish() throws IOException {
+            try {
+                for (int i = 0; i < workers; i++) {
+                    if (filling[i] != null && failure.get() == null) put(queues.get(i), filling[i]);
+                    queues.get(i).put(END); // Never blocks for long: workers drain until END
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                for (Thread thread : threads) {
+                    thread.interrupt();
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Import interrupted");
+            }
+            checkFailure();
+        }
+
+        // --- Posting (worker threads) ---
+
+        void work(BlockingQueue<Batch> queue) {
+            try {
+                for (Batch batch = queue.take(); batch != END; batch = queue.take()) {
+                    try {
+                        if (failure.get() == null) post(batch);
+                    } catch (RuntimeException | Error e) {
+                        failure.compareAndSet(null, e); // Keep draining so the reader never blocks for good
+                    }
+                    batch.size = 0;
+                    free.put(batch);
+                }
+            } catch (InterruptedException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        void post(Batch batch) {
+            int size = batch.size;
+            long[] order = batch.order;
+            for (int row = 0; row < size; row++) {
+                order[row] = batch.accounts[row] * BATCH_ROWS + row;
+            }
+            Arrays.sort(order, 0, size); // Groups each account's rows, still in file order
+
+            for (int from = 0; from < size; ) {
+                long account = order[from] / BATCH_ROWS;
+                int to = from + 1;
+                while (to < size && order[to] / BATCH_ROWS == account) to++;
+
+                int first = from;
+                int last = to;
+                String accountNumber = formatAccountNumber(account);
+                boolean found = ledger.postBatch(accountNumber, a -> {
+                    for (int i = first; i < last; i++) {
+                        int row = (int) (order[i] % BATCH_ROWS);
+                        batch.results[row] = ledger.postInBatch(a, batch.withdrawals[row], batch.amounts[row],
+                                batch.descriptions[row]);
+                    }
+                });
+                for (int i = first; i < last; i++) {
+                    int row = (int) (order[i] % BATCH_ROWS);
+                    PostingResult result = found ? batch.results[row] : PostingResult.ACCOUNT_NOT_FOUND;
+                    batch.results[row] = null;
+                    if (result.isSuccess()) {
+                        posted.increment();
+                        continue;
+                    }
+                    if (!found) {
+                        ledger.getMetrics().record(batch.withdrawals[row] ? Metrics.Op.WITHDRAW : Metrics.Op.DEPOSIT,
+                                result, System.nanoTime());
+                    }
+                    rejects.add(batch.lines[row], accountNumber, switch (result) {
+                        case ACCOUNT_NOT_FOUND -> "Account not found";
+                        case INSUFFICIENT_FUNDS -> "Insufficient funds";
+                        case DECLINED -> "Declined by the account's limits";
+                        case HELD -> "Held for review";
+                        default -> result.name();
+                    });
+                }
+                from = to;
+            }
+            ledger.awaitJournal(); // The batch is only done once it is durable
+        }
+
+        // --- Hand-off ---
+
+        Batch take(BlockingQueue<Batch> queue) throws IOException {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Import interrupted");
+            }
+        }
+
+        void put(BlockingQueue<Batch> queue, Batch batch) throws IOException {
+            try {
+                queue.put(batch); // Blocks while the worker is behind: backpressure on the reader
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Import interrupted");
+            }
+            checkFailure();
+        }
+
+        void checkFailure() throws IOException {
+            Throwable e = failure.get();
+            if (e == null) return;
+            if (e instanceof UncheckedIOException) throw ((UncheckedIOException) e).getCause();
+            if (e instanceof IOException) throw (IOException) e;
+            throw new IOException("Import failed", e);
+        }
+    }
+
+    // --- Parsing helpers ---
+
+    private static int indexOf(byte[] b, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == value) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** @return The 10-digit account number as a long, or -1 if invalid. */
+    private static long parseAccountNumber(byte[] b, int start, int end) {
+        while (start < end && b[start] == ' ') start++;
+        while (end > start && b[end - 1] == ' ') end--;
+        if (end - start != 10) return -1;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            if (!isDigit(b[i])) return -1;
+            value = value * 10 + (b[i] - '0');
+        }
+        return value;
+    }
+
+    private static String formatAccountNumber(long account) {
+        char[] digits = new char[10];
+        for (int i = 9; i >= 0; i--) {
+            digits[i] = (char) ('0' + account % 10);
+            account /= 10;
+        }
+        return new String(digits);
+    }
+
+    private static boolean equalsIgnoreCase(byte[] b, int start, int end, String expected) {
+        while (start < end && b[start] == ' ') start++;
+        while (end > start && b[end - 1] == ' ') end--;
+        if (end - start != expected.length()) return false;
+        for (int i = 0; i < expected.length(); i++) {
+            if ((b[start + i] & ~0x20) != expected.charAt(i)) return false; // expected is upper-case ASCII
+        }
+        return true;
+    }
+
+    /** For reject messages only. */
+    private static String ascii(byte[] b, int start, int end) {
+        return new String(b, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /** Bytes of the read buffer seen as chars, so {@link Money#parse} can read them in place. */
+    private static final class AsciiView implements CharSequence {
+        private final byte[] bytes;
+
+        AsciiView(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return bytes.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return ascii(bytes, start, end);
+        }
+
+        @Override
+        public String toString() {
+            return ascii(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Recently seen descriptions, keyed by their bytes, so the few distinct
+     * descriptions of a settlement file become Strings once. Used by the reader only.
+     */
+    private static final class DescriptionCache {
+        private static final int SLOTS = 1024; // Power of two
+
+        private final byte[][] keys = new byte[SLOTS][];
+        private final String[] values = new String[SLOTS];
+
+        String get(byte[] b, int start, int end) {
+            while (start < end && b[start] == ' ') start++;
+            while (end > start && b[end - 1] == ' ') end--;
+            if (end - start >= 2 && b[start] == '"' && b[end - 1] == '"') {
+                start++;
+                end--;
+                if (indexOf(b, start, end, (byte) '"') >= 0) { // Escaped quotes; rare
+                    return new String(b, start, end - start, StandardCharsets.UTF_8).replace("\"\"", "\"");
+                }
+            }
+            if (start == end) return DEFAULT_DESCRIPTION;
+
+            int h = 1;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + b[i];
+            }
+            int slot = (h ^ (h >>> 16)) & (SLOTS - 1);
+            byte[] key = keys[slot];
+            if (key != null && Arrays.equals(key, 0, key.length, b, start, end)) {
+                return values[slot];
+            }
+            String value = new String(b, start, end - start, StandardCharsets.UTF_8);
+            keys[slot] = Arrays.copyOfRange(b, start, end); // Replaces any colliding entry
+            values[slot] = value;
+            return value;
+        }
+    }
+
+    /** The reject report, written by the reader and the workers. */
+    private static final class Rejects implements AutoCloseable {
+        private final BufferedWriter out;
+        private long count; // Guarded by this
+
+        Rejects(BufferedWriter out) throws IOException {
+            this.out = out;
+            out.write("line,account,reason\n");
+        }
+
+        synchronized void add(long line, String account, String reason) {
+            count++;
+            try {
+                out.write(Long.toString(line));
+                out.write(',');
+                out.write(quote(account));
+                out.write(',');
+                out.write(quote(reason));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static String quote(String field) {
+            if (field.indexOf(',') < 0 && field.indexOf('"') < 0) return field;
+            return '"' + field.replace("\"", "\"\"") + '"';
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java CsvImporter file.csv [rejects.csv]");
+            System.exit(2);
+        }
+        Path csv = Paths.get(args[0]);
+        Path rejects = args.length > 1 ? Paths.get(args[1]) : csv.resolveSibling(csv.getFileName() + ".rejects.csv");
+        try (Ledger ledger = Ledger.open(Paths.get(System.getProperty("bank.journal", "bank.journal")),
+                Paths.get(System.getProperty("bank.snapshot", "bank.snapshot")))) {
+            if (Boolean.parseBoolean(System.getProperty("bank.riskRules", "true"))) { // As the app screens them
+                ledger.setRiskRules(RiskRules.defaults());
+            }
+            System.out.println(new CsvImporter(ledger).importFile(csv, rejects));
+            ledger.writeSnapshot();
+        }
+    }
+}
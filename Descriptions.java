@@ -0,0 +1,58 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide dictionary of transaction descriptions.
+ * <p>
+ * Postings reuse a handful of descriptions ("User Deposit", "Withdrawal Fee",
+ * "Monthly Interest Earned", ...), so the history store keeps a small int id
+ * per posting instead of a String reference. The dictionary is capped; once
+ * full, {@link #intern} returns {@link #NONE} and the caller stores the text
+ * itself, so free-form descriptions cannot grow it without bound.
+ */
+final class Descriptions {
+
+    /** Returned by {@link #intern} when the description is not in the dictionary. */
+    public static final int NONE = -1;
+
+    private static final int MAX_ENTRIES = 1 << 16;
+
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static volatile String[] values = new String[64];
+    private static int count; // Guarded by Descriptions.class
+
+    private Descriptions() {
+    }
+
+    /**
+     * @return The description's id, or {@link #NONE} if the dictionary is full.
+     */
+    public static int intern(String description) {
+        Integer id = IDS.get(description);
+        if (id != null) return id;
+        synchronized (Descriptions.class) {
+            id = IDS.get(description);
+            if (id != null) return id;
+            if (count == MAX_ENTRIES) return NONE;
+            String[] v = values;
+            if (count == v.length) {
+                v = Arrays.copyOf(v, v.length * 2);
+            }
+            v[count] = description;
+            values = v; // Publish the slot before the id can be seen
+            IDS.put(description, count);
+            return count++;
+        }
+    }
+
+    public static String get(int id) {
+        return values[id];
+    }
+
+    /** Copies the dictionary, indexed by id. */
+    public static String[] toArray() {
+        synchronized (Descriptions.class) {
+            return Arrays.copyOf(values, count);
+        }
+    }
+}
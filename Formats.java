@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Fast, allocation-light rendering of amounts, timestamps and history rows.
+ * <p>
+ * Everything appends into a caller-supplied {@link StringBuilder} so a
+ * statement can reuse one builder for every row. The ZAR renderer produces
+ * exactly what {@code NumberFormat.getCurrencyInstance(new Locale("en", "ZA"))}
+ * does ("R1 234,56" with a no-break space, "-R0,50"), without building a
+ * NumberFormat or going through double. Timestamps are rendered as
+ * {@code yyyy-MM-dd HH:mm:ss} in the system zone from a per-thread cache of
+ * the current local day, so most rows cost a few divisions.
+ */
+final class Formats {
+
+    private static final char GROUP_SEPARATOR = '\u00A0'; // en-ZA groups with a no-break space
+    private static final char DECIMAL_SEPARATOR = ',';
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private static final ThreadLocal<StringBuilder> BUILDER = ThreadLocal.withInitial(() -> new StringBuilder(128));
+    private static final ThreadLocal<DayCache> DAY = ThreadLocal.withInitial(DayCache::new);
+
+    private Formats() {
+    }
+
+    // --- Amounts ---
+
+    /** Formats cents as ZAR, e.g. 123456 -> "R1 234,56". */
+    public static String zar(long cents) {
+        return appendZar(builder(), cents).toString();
+    }
+
+    public static StringBuilder appendZar(StringBuilder sb, long cents) {
+        if (cents < 0) {
+            sb.append('-');
+            cents = -cents;
+        }
+        sb.append('R');
+        appendGrouped(sb, cents / Money.CENTS_PER_RAND);
+        return appendCents(sb.append(DECIMAL_SEPARATOR), cents % Money.CENTS_PER_RAND);
+    }
+
+    /** Appends cents as a plain decimal, e.g. 123456 -> "1234.56". */
+    public static StringBuilder appendPlain(StringBuilder sb, long cents) {
+        if (cents < 0) {
+            sb.append('-');
+            cents = -cents;
+        }
+        sb.append(cents / Money.CENTS_PER_RAND).append('.');
+        return appendCents(sb, cents % Money.CENTS_PER_RAND);
+    }
+
+    private static void appendGrouped(StringBuilder sb, long rands) {
+        if (rands < 1000) {
+            sb.append(rands);
+            return;
+        }
+        appendGrouped(sb, rands / 1000);
+        int group = (int) (rands % 1000);
+        sb.append(GROUP_SEPARATOR);
+        if (group < 100) sb.append('0');
+        if (group < 10) sb.append('0');
+        sb.append(group);
+    }
+
+    private static StringBuilder appendCents(StringBuilder sb, long cents) {
+        if (cents < 10) sb.append('0');
+        return sb.append(cents);
+    }
+
+    // --- Timestamps ---
+
+    /** Formats epoch millis as {@code yyyy-MM-dd HH:mm:ss} in the system zone. */
+    public static String timestamp(long epochMillis) {
+        return appendTimestamp(builder(), epochMillis).toString();
+    }
+
+    public static StringBuilder appendTimestamp(StringBuilder sb, long epochMillis) {
+        DayCache day = DAY.get();
+        if (epochMillis < day.from || epochMillis >= day.to) {
+            day.load(epochMillis);
+        }
+        int secondOfDay = (int) ((epochMillis - day.midnight) / 1000);
+        sb.append(day.date).append(' ');
+        appendTwoDigits(sb, secondOfDay / 3600).append(':');
+        appendTwoDigits(sb, secondOfDay / 60 % 60).append(':');
+        return appendTwoDigits(sb, secondOfDay % 60);
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder sb, int value) {
+        return sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * One local calendar day with a fixed UTC offset: the rendered date plus
+     * the instant range it covers (cut short at an offset transition).
+     */
+    private static final class DayCache {
+        final char[] date = new char[10];
+        long from = 1; // Empty range until the first load
+        long to = 0;
+        long midnight; // Local midnight as epoch millis, for this range's offset
+
+        void load(long epochMillis) {
+            ZoneRules rules = ZONE.getRules();
+            Instant instant = Instant.ofEpochMilli(epochMillis);
+            long offsetMillis = rules.getOffset(instant).getTotalSeconds() * 1000L;
+            long local = epochMillis + offsetMillis;
+            long epochDay = Math.floorDiv(local, MILLIS_PER_DAY);
+            midnight = epochDay * MILLIS_PER_DAY - offsetMillis;
+            from = midnight;
+            to = midnight + MILLIS_PER_DAY;
+            ZoneOffsetTransition previous = rules.previousTransition(Instant.ofEpochMilli(epochMillis + 1));
+            if (previous != null && previous.getInstant().toEpochMilli() > from) {
+                from = previous.getInstant().toEpochMilli();
+            }
+            ZoneOffsetTransition next = rules.nextTransition(instant);
+            if (next != null && next.getInstant().toEpochMilli() < to) {
+                to = next.getInstant().toEpochMilli();
+            }
+            LocalDate d = LocalDate.ofEpochDay(epochDay);
+            int year = d.getYear();
+            date[0] = (char) ('0' + year / 1000 % 10);
+            date[1] = (char) ('0' + year / 100 % 10);
+            date[2] = (char) ('0' + year / 10 % 10);
+            date[3] = (char) ('0' + year % 10);
+            date[4] = '-';
+            date[5] = (char) ('0' + d.getMonthValue() / 10);
+            date[6] = (char) ('0' + d.getMonthValue() % 10);
+            date[7] = '-';
+            date[8] = (char) ('0' + d.getDayOfMonth() / 10);
+            date[9] = (char) ('0' + d.getDayOfMonth() % 10);
+        }
+    }
+
+    // --- History rows and statements ---
+
+    /**
+     * Appends one posting as {@code [yyyy-MM-dd HH:mm:ss] TYPE: 12.34 (description)}.
+     */
+    public static StringBuilder appendTransaction(StringBuilder sb, long timestamp, Transaction.Type type,
+                                                  long amount, String description) {
+        appendTimestamp(sb.append('['), timestamp).append("] ").append(type.name()).append(": ");
+        return appendPlain(sb, amount).append(" (").append(description).append(')');
+    }
+
+    /**
+     * Renders postings {@code [from, to)} one per line into {@code out}, reusing
+     * a single builder and writing it out in blocks.
+     */
+    public static void renderHistory(TransactionHistory history, int from, int to, Appendable out) throws IOException {
+        StringBuilder sb = new StringBuilder(8192);
+        for (int i = from; i < to; i++) {
+            appendTransaction(sb, history.timestampAt(i), history.typeAt(i), history.amountAt(i),
+                    history.descriptionAt(i)).append('\n');
+            if (sb.length() >= 8000) {
+                out.append(sb);
+                sb.setLength(0);
+            }
+        }
+        out.append(sb);
+    }
+
+    /** The calling thread's scratch builder, emptied. */
+    private static StringBuilder builder() {
+        StringBuilder sb = BUILDER.get();
+        sb.setLength(0);
+        return sb;
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Results of recent keyed ledger operations, so a retried request (an upstream
+ * feed resending, a double-clicked button) gets the original result back
+ * instead of posting again.
+ * <p>
+ * Keys are scoped to the account an operation debits or credits first (see
+ * {@link #scope}), and the ledger checks and records them under that account's
+ * lock stripe, so two copies of one request cannot both run. Lookups are a
+ * single hash-map read. Entries are also kept, in the order they were added,
+ * in a ring of parallel arrays that grows up to a fixed capacity; adding one
+ * evicts entries older than the retention time, and the oldest entry when the
+ * ring is full, so memory stays bounded at any ingest rate. An entry is
+ * therefore remembered for {@link #DEFAULT_RETENTION_MILLIS} unless more than
+ * {@link #DEFAULT_CAPACITY} newer ones push it out first.
+ * <p>
+ * Every entry is journaled in the same record as the postings it produced,
+ * and the ring is copied into snapshots, so the cache survives restarts.
+ * <p>
+ * An entry is an {@link Outcome}: the result, plus a value for operations
+ * that answer with more than a result (the id of a scheduled loan, the
+ * interest credited). The plain outcomes are shared, so remembering an
+ * ordinary posting allocates nothing beyond the map entry.
+ */
+final class IdempotencyCache {
+
+    static final int DEFAULT_CAPACITY = 1 << 20;
+    static final int MAX_KEY_LENGTH = 200;
+    private static final int INITIAL_RING = 1024;
+    static final long DEFAULT_RETENTION_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    /** What a keyed operation answered. */
+    static final class Outcome {
+        private static final Outcome[] PLAIN = new Outcome[PostingResult.values().length];
+
+        static {
+            for (PostingResult result : PostingResult.values()) PLAIN[result.ordinal()] = new Outcome(result, 0);
+        }
+
+        final PostingResult result;
+        final long value; // Operation-specific, 0 for plain postings
+
+        private Outcome(PostingResult result, long value) {
+            this.result = result;
+            this.value = value;
+        }
+
+        static Outcome of(PostingResult result) {
+            return PLAIN[result.ordinal()];
+        }
+
+        static Outcome of(PostingResult result, long value) {
+            return value == 0 ? of(result) : new Outcome(result, value);
+        }
+    }
+
+    /** The entries at one moment, oldest first, for a snapshot. */
+    static final class Remembered {
+        final String[] keys; // Scoped; see scope()
+        final Outcome[] outcomes;
+        final long[] times; // Epoch millis each was recorded
+
+        Remembered(String[] keys, Outcome[] outcomes, long[] times) {
+            this.keys = keys;
+            this.outcomes = outcomes;
+            this.times = times;
+        }
+
+        int size() {
+            return keys.length;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Outcome> outcomes;
+    private final int capacity;
+    private final long retentionMillis;
+    // Ring of entries in insertion order; guarded by this
+    private String[] keys;
+    private Outcome[] values;
+    private long[] times;
+    private int head; // Oldest entry
+    private int size;
+
+    IdempotencyCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_RETENTION_MILLIS);
+    }
+
+    IdempotencyCache(int capacity, long retentionMillis) {
+        this.outcomes = new ConcurrentHashMap<>(Math.min(capacity, 1 << 16));
+        this.capacity = capacity;
+        this.retentionMillis = retentionMillis;
+        int ring = Math.min(capacity, INITIAL_RING);
+        this.keys = new String[ring];
+        this.values = new Outcome[ring];
+        this.times = new long[ring];
+    }
+
+    /**
+     * @param key An operation's idempotency key, or null for none.
+     * @throws IllegalArgumentException if the key is empty or longer than {@value #MAX_KEY_LENGTH} characters.
+     */
+    static void checkKey(String key) {
+        if (key != null && (key.isEmpty() || key.length() > MAX_KEY_LENGTH)) {
+            throw new IllegalArgumentException("Idempotency key must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+    }
+
+    /** The cache key for an operation's key on an account. */
+    static String scope(String accountNumber, String key) {
+        return accountNumber + '/' + key;
+    }
+
+    /** @return The outcome remembered for a scoped key, or null. */
+    Outcome get(String scopedKey) {
+        return outcomes.get(scopedKey);
+    }
+
+    /**
+     * Remembers an outcome, evicting what has expired by {@code now} or no
+     * longer fits. Call under the stripe of the key's account, after checking
+     * {@link #get}.
+     */
+    synchronized void put(String scopedKey, Outcome outcome, long now) {
+        if (size == keys.length && size < capacity) grow();
+        while (size > 0 && (size == keys.length || now - times[head] >= retentionMillis)) {
+            outcomes.remove(keys[head]);
+            keys[head] = null;
+            values[head] = null;
+            head = (head + 1) % keys.length;
+            size--;
+        }
+        int tail = (head + size) % keys.length;
+        keys[tail] = scopedKey;
+        values[tail] = outcome;
+        times[tail] = now;
+        size++;
+        outcomes.put(scopedKey, outcome);
+    }
+
+    /** Doubles the ring, up to the capacity, unrolling it so the oldest entry is first. */
+    private void grow() {
+        int length = Math.min(capacity, keys.length * 2);
+        Remembered current = remembered();
+        keys = Arrays.copyOf(current.keys, length);
+        values = Arrays.copyOf(current.outcomes, length);
+        times = Arrays.copyOf(current.times, length);
+        head = 0;
+    }
+
+    /** Puts back an entry from a snapshot or the journal, unless it has expired by {@code now}. */
+    void restore(String scopedKey, Outcome outcome, long recordedAt, long now) {
+        if (now - recordedAt < retentionMillis) put(scopedKey, outcome, recordedAt);
+    }
+
+    int size() {
+        return outcomes.size();
+    }
+
+    /** Copies the entries, oldest first; only array copies, so cheap enough under the ledger's lockAll. */
+    synchronized Remembered remembered() {
+        String[] k = new String[size];
+        Outcome[] r = new Outcome[size];
+        long[] t = new long[size];
+        int first = Math.min(size, keys.length - head); // From head to the end of the arrays, then wrapped
+        System.arraycopy(keys, head, k, 0, first);
+        System.arraycopy(keys, 0, k, first, size - first);
+        System.arraycopy(values, head, r, 0, first);
+        System.arraycopy(values, 0, r, first, size - first);
+        System.arraycopy(times, head, t, 0, first);
+        System.arraycopy(times, 0, t, first, size - first);
+        return new Remembered(k, r, t);
+    }
+}
@@ -0,0 +1,312 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+/**
+ * Month-end interest run: credits interest to every savings account in the ledger.
+ * <p>
+ * Accounts are split by a hash of their number into a fixed number of
+ * partitions, processed in parallel on a fork/join pool. A partition's
+ * postings are journaled back to back and made durable with a single wait,
+ * after which the partition is marked done in a checkpoint file. A run that
+ * is interrupted and started again for the same period skips the finished
+ * partitions; in the others, an account whose history already holds this
+ * period's interest posting, made any time since the period began, is left
+ * alone, so no account is paid twice, even when the checkpoint is lost or a
+ * later period has run since.
+ * Running a period that has already finished does nothing.
+ * <p>
+ * Usage: {@code java InterestRun yyyy-MM [rateBasisPoints]}, with the
+ * application stopped; it uses the same files as {@link BankApp}.
+ */
+final class InterestRun {
+
+    static final int DEFAULT_PARTITIONS = 256;
+
+    /** How far before the period's first day the duplicate check looks, covering time zones and clock adjustments. */
+    private static final long CLOCK_SLACK_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /** Outcome of a run. Counts cover this invocation only, not partitions finished earlier. */
+    static final class Report {
+        final YearMonth period;
+        final long accountsCredited;
+        final long accountsAlreadyCredited;
+        final long totalInterest; // In cents
+        final int partitionsRun;
+        final int partitionsSkipped;
+        final long elapsedNanos;
+
+        Report(YearMonth period, long accountsCredited, long accountsAlreadyCredited, long totalInterest,
+               int partitionsRun, int partitionsSkipped, long elapsedNanos) {
+            this.period = period;
+            this.accountsCredited = accountsCredited;
+            this.accountsAlreadyCredited = accountsAlreadyCredited;
+            this.totalInterest = totalInterest;
+            this.partitionsRun = partitionsRun;
+            this.partitionsSkipped = partitionsSkipped;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /** Savings accounts processed per second, whether or not interest was due. */
+        double accountsPerSecond() {
+            long accounts = accountsCredited + accountsAlreadyCredited;
+            return elapsedNanos > 0 ? accounts * 1e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Interest run %s: %d accounts credited %s, %d already credited, "
+                            + "%d partitions run, %d skipped, %.1f s, %.0f accounts/s",
+                    period, accountsCredited, Formats.zar(totalInterest), accountsAlreadyCredited,
+                    partitionsRun, partitionsSkipped, elapsedNanos / 1e9, accountsPerSecond());
+        }
+    }
+
+    private final Ledger ledger;
+    private final int rateBasisPoints;
+    private final String description;
+    private final long since;
+    private final Checkpoint checkpoint;
+    private final Account[][] partitions;
+    private final LongAdder credited = new LongAdder();
+    private final LongAdder alreadyCredited = new LongAdder();
+    private final LongAdder totalInterest = new LongAdder();
+
+    private InterestRun(Ledger ledger, YearMonth period, int rateBasisPoints, Checkpoint checkpoint) {
+        this.ledger = ledger;
+        this.rateBasisPoints = rateBasisPoints;
+        this.description = "Monthly Interest Earned (" + period + ")";
+        // Bounded by the period, not this run, so a rerun after a later period or a lost checkpoint still finds it
+        this.since = period.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli() - CLOCK_SLACK_MILLIS;
+        this.checkpoint = checkpoint;
+        this.partitions = partition(ledger, checkpoint.partitions);
+    }
+
+    /**
+     * Runs (or resumes) the interest run for {@code period} on the common pool.
+     * @param checkpointFile Where progress is kept; created if missing, replaced when the period changes.
+     * @throws IllegalStateException If the period was started at a different rate.
+     */
+    static Report run(Ledger ledger, YearMonth period, int rateBasisPoints, Path checkpointFile) throws IOException {
+        return run(ledger, period, rateBasisPoints, checkpointFile, ForkJoinPool.commonPool());
+    }
+
+    static Report run(Ledger ledger, YearMonth period, int rateBasisPoints, Path checkpointFile,
+                      ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        Checkpoint checkpoint = Checkpoint.load(checkpointFile);
+        if (checkpoint == null || !checkpoint.period.equals(period)) {
+            checkpoint = new Checkpoint(checkpointFile, period, rateBasisPoints, System.currentTimeMillis(),
+                    DEFAULT_PARTITIONS);
+            checkpoint.save();
+        } else if (checkpoint.rateBasisPoints != rateBasisPoints) {
+            throw new IllegalStateException("Interest for " + period + " was started at "
+                    + checkpoint.rateBasisPoints + " basis points, not " + rateBasisPoints);
+        }
+
+        int skipped = checkpoint.doneCount();
+        InterestRun run = new InterestRun(ledger, period, rateBasisPoints, checkpoint);
+        try {
+            pool.invoke(run.new Partitions(0, checkpoint.partitions));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new Report(period, run.credited.sum(), run.alreadyCredited.sum(), run.totalInterest.sum(),
+                checkpoint.partitions - skipped, skipped, System.nanoTime() - start);
+    }
+
+    /** Splits the savings accounts into partitions by a hash of their number. */
+    private static Account[][] partition(Ledger ledger, int count) {
+        List<List<Account>> lists = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lists.add(new ArrayList<>());
+        }
+        for (Account account : ledger.getAccounts()) {
+            if (account.getType() == Account.AccountType.SAVINGS) {
+                lists.get(partitionOf(account.getAccountNumber(), count)).add(account);
+            }
+        }
+        Account[][] partitions = new Account[count][];
+        for (int i = 0; i < count; i++) {
+            partitions[i] = lists.get(i).toArray(new Account[0]);
+        }
+        return partitions;
+    }
+
+    /** Stable across restarts, so a partition marked done names the same accounts next time. */
+    static int partitionOf(String accountNumber, int count) {
+        int h = accountNumber.hashCode() * 0x9E3779B9; // Spread, so partitions do not line up with lock stripes
+        return (h >>> 1) % count;
+    }
+
+    private void runPartition(int index) throws IOException {
+        if (checkpoint.isDone(index)) return;
+        for (Account account : partitions[index]) {
+            long interest = ledger.creditInterestOnce(account, rateBasisPoints, description, since);
+            if (interest < 0) {
+                alreadyCredited.increment();
+            } else {
+                credited.increment();
+                totalInterest.add(interest);
+            }
+        }
+        ledger.awaitJournal(); // The checkpoint must never get ahead of the journal
+        checkpoint.markDone(index);
+    }
+
+    /** Halves the partition range until one partition remains. */
+    private final class Partitions extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        Partitions(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                try {
+                    runPartition(from);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Partitions(from, mid), new Partitions(mid, to));
+        }
+    }
+
+    /**
+     * The period, rate and start time of a run, and which partitions are done.
+     * Rewritten atomically (temporary file, fsync, rename) each time a
+     * partition finishes; a missing or corrupt file reads as no run.
+     * <p>
+     * Layout: magic, version, year, month, rate, start time (epoch millis),
+     * partition count, done bitmap as longs, then a CRC32C of all of it.
+     */
+    private static final class Checkpoint {
+        private static final int MAGIC = 0x424E4B49; // "BNKI"
+        private static final int VERSION = 1;
+
+        final Path file;
+        final YearMonth period;
+        final int rateBasisPoints;
+        final long startedAt;
+        final int partitions;
+        private final long[] done; // Guarded by this
+
+        Checkpoint(Path file, YearMonth period, int rateBasisPoints, long startedAt, int partitions) {
+            this(file, period, rateBasisPoints, startedAt, partitions, new long[(partitions + 63) >>> 6]);
+        }
+
+        private Checkpoint(Path file, YearMonth period, int rateBasisPoints, long startedAt, int partitions,
+                           long[] done) {
+            this.file = file;
+            this.period = period;
+            this.rateBasisPoints = rateBasisPoints;
+            this.startedAt = startedAt;
+            this.partitions = partitions;
+            this.done = done;
+        }
+
+        static Checkpoint load(Path file) throws IOException {
+            ByteBuffer buf;
+            try {
+                buf = ByteBuffer.wrap(Files.readAllBytes(file));
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+            if (buf.remaining() < 32 || buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+            CRC32C crc = new CRC32C();
+            crc.update(buf.array(), 0, buf.limit() - Integer.BYTES);
+            if ((int) crc.getValue() != buf.getInt(buf.limit() - Integer.BYTES)) return null;
+
+            YearMonth period = YearMonth.of(buf.getInt(), buf.getInt());
+            int rate = buf.getInt();
+            long startedAt = buf.getLong();
+            int partitions = buf.getInt();
+            if (partitions <= 0 || buf.remaining() != ((partitions + 63) >>> 6) * Long.BYTES + Integer.BYTES) {
+                return null;
+            }
+            long[] done = new long[(partitions + 63) >>> 6];
+            buf.asLongBuffer().get(done);
+            return new Checkpoint(file, period, rate, startedAt, partitions, done);
+        }
+
+        synchronized boolean isDone(int partition) {
+            return (done[partition >>> 6] & 1L << partition) != 0;
+        }
+
+        synchronized int doneCount() {
+            int count = 0;
+            for (long word : done) {
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
+
+        synchronized void markDone(int partition) throws IOException {
+            done[partition >>> 6] |= 1L << partition;
+            save();
+        }
+
+        synchronized void save() throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(32 + done.length * Long.BYTES + Integer.BYTES);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(period.getYear()).putInt(period.getMonthValue())
+                    .putInt(rateBasisPoints).putLong(startedAt).putInt(partitions);
+            for (long word : done) {
+                buf.putLong(word);
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buf.array(), 0, buf.position());
+            buf.putInt((int) crc.getValue()).flip();
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                out.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java InterestRun yyyy-MM [rateBasisPoints]");
+            System.exit(2);
+        }
+        YearMonth period = YearMonth.parse(args[0]);
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 50; // 0.5%, as the dashboard applies
+        try (Ledger ledger = Ledger.open(Paths.get(System.getProperty("bank.journal", "bank.journal")),
+                Paths.get(System.getProperty("bank.snapshot", "bank.snapshot")))) {
+            Report report = run(ledger, period, rate,
+                    Paths.get(System.getProperty("bank.interest", "bank.interest")));
+            System.out.println(report);
+            ledger.writeSnapshot(); // So the next start does not replay the whole run
+        }
+    }
+}
@@ -0,0 +1,752 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, binary write-ahead journal of every ledger mutation.
+ * <p>
+ * Each record is framed as {@code [int length][int crc32c][payload]}. Writers
+ * append into an in-memory batch and get back the journal position
+ * their record ends at; a single flusher thread writes the batch through a
+ * {@link FileChannel} and forces it to disk, then wakes everyone whose record
+ * made it. Writers that arrive while an fsync is in progress pile into the
+ * next batch, so one fsync covers many transactions (group commit).
+ * <p>
+ * On {@link #open} the existing records are replayed into a {@link Listener};
+ * a torn record at the tail (crash mid-write) is detected by its checksum and
+ * truncated away. An open journal holds an exclusive lock on its file, so a
+ * second process (a batch run beside the application) fails to open it
+ * rather than truncating or interleaving with the live writer's records;
+ * {@link #replay(Path, long, Listener)} reads one without taking it over.
+ * <p>
+ * For replication the durable bytes can be read back as they are
+ * ({@link #read}) and appended as they are to a follower's journal
+ * ({@link #appendReplicated}), so a follower's journal is a byte-for-byte
+ * prefix of its leader's and both agree on every position.
+ */
+class Journal implements AutoCloseable {
+
+    /** Receives records as they are replayed during recovery. */
+    interface Listener {
+        void accountOpened(String accountNumber, String pinHash, String accountHolderName, Account.AccountType type);
+
+        void posted(String accountNumber, Transaction.Type type, long amount, long timestamp, String description);
+
+        void transferred(String fromAccountNumber, String toAccountNumber, long amount, long timestamp,
+                         String description);
+
+        void accountNumbersLeased(long end);
+
+        void loanOpened(String accountNumber, long loanId, long principal, int annualRateBasisPoints, int termMonths,
+                        long firstDueDay, long timestamp);
+
+        void installmentPaid(String accountNumber, long loanId, long interest, long payment, long timestamp);
+
+        /** A keyed operation's result and value; called after the records wrapped with it are replayed. */
+        void keyed(String accountNumber, String key, PostingResult result, long value, long timestamp);
+    }
+
+    private static final byte ACCOUNT_OPENED = 1;
+    private static final byte POSTED = 3;            // Timestamp in epoch milliseconds; kind 2 is unused
+    private static final byte TRANSFERRED = 4;       // Both legs of a transfer, so recovery applies both or neither
+    private static final byte NUMBERS_LEASED = 5;    // A block of account-number sequence values, by its end
+    private static final byte LOAN_OPENED = 6;       // A scheduled loan's terms and its payout posting
+    private static final byte LOAN_INSTALLMENT = 7;  // An installment's interest and repayment postings together
+    private static final byte KEYED = 8;             // An idempotency key and outcome, wrapping the records it made
+
+    private static final int HEADER_BYTES = 8; // length + checksum
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final int TAIL_CHECK_BYTES = 4096; // Bytes before a position that checksumBefore covers
+    private static final Account.AccountType[] ACCOUNT_TYPES = Account.AccountType.values();
+    private static final Transaction.Type[] TRANSACTION_TYPES = Transaction.Type.values();
+    private static final PostingResult[] RESULTS = PostingResult.values();
+
+    private final FileChannel channel;
+    private final Thread flusher;
+    private final CRC32C crc = new CRC32C(); // Guarded by lock
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchReady = lock.newCondition();
+    private final Condition batchFlushed = lock.newCondition();
+    private ByteBuffer pending = ByteBuffer.allocateDirect(64 * 1024);
+    private ByteBuffer flushing = ByteBuffer.allocateDirect(64 * 1024);
+    private long appendedPosition; // End of the last appended record
+    private long durablePosition;  // End of the last record forced to disk
+    private int recordStart; // Offset in pending of the record being encoded
+    private IOException failure;
+    private boolean closed;
+    private boolean replica; // Takes records only through appendReplicated
+
+    private Journal(FileChannel channel, long position) {
+        this.channel = channel;
+        this.appendedPosition = position;
+        this.durablePosition = position;
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Opens (or creates) a journal, replaying every intact record into the listener.
+     */
+    public static Journal open(Path file, Listener listener) throws IOException {
+        return open(file, 0, listener);
+    }
+
+    /**
+     * Opens (or creates) a journal, replaying the intact records from {@code from}
+     * on, e.g. the position a {@link Snapshot} was taken at.
+     */
+    public static Journal open(Path file, long from, Listener listener) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock held;
+            try {
+                held = channel.tryLock(); // Released when the channel closes
+            } catch (OverlappingFileLockException e) {
+                held = null; // Open in this process already
+            }
+            if (held == null) {
+                throw new IOException("Journal " + file + " is in use; stop the application using it first");
+            }
+            if (channel.size() < from) {
+                throw new IOException("Journal " + file + " ends before the snapshot position " + from);
+            }
+            long end = replay(channel, from, listener);
+            if (end < channel.size()) {
+                channel.truncate(end); // Drop a torn tail left by a crash
+                channel.force(true);
+            }
+            channel.position(end);
+            return new Journal(channel, end);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Replays the intact records from {@code from} on without opening the
+     * journal for writing, so it can be read while another process appends
+     * to it; a record still being written ends the replay.
+     * @return The position the replay stopped at.
+     */
+    public static long replay(Path file, long from, Listener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < from) {
+                throw new IOException("Journal " + file + " ends before the snapshot position " + from);
+            }
+            return replay(channel, from, listener);
+        }
+    }
+
+    // --- Appending ---
+
+    public long appendAccountOpened(Account account) {
+        byte[] number = utf8(account.getAccountNumber());
+        byte[] pin = utf8(account.getPinHash());
+        byte[] name = utf8(account.getAccountHolderName());
+        lock.lock();
+        try {
+            ByteBuffer buf = beginRecord(1 + 6 + number.length + pin.length + name.length + 1);
+            buf.put(ACCOUNT_OPENED);
+            putString(buf, number);
+            putString(buf, pin);
+            putString(buf, name);
+            buf.put((byte) account.getType().ordinal());
+            return endRecord(buf);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends posting {@code index} of an account's history.
+     */
+    public long appendPosted(String accountNumber, TransactionHistory history, int index) {
+        byte[] number = utf8(accountNumber);
+        byte[] description = utf8(history.descriptionAt(index));
+        lock.lock();
+        try {
+            ByteBuffer buf = beginRecord(postedBytes(number, description));
+            putPosted(buf, number, history, index, description);
+            return endRecord(buf);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends the result of a keyed operation on an account together with the
+     * postings {@code from} (inclusive) to {@code to} of its history that the
+     * operation made, as one record: recovery restores the key with its
+     * postings or neither, so a retry after a crash can never post twice.
+     * @param value What the operation answered besides its result, such as
+     *              the interest it credited; 0 for plain postings.
+     */
+    public long appendKeyed(String accountNumber, String key, PostingResult result, long value, long timestamp,
+                            TransactionHistory history, int from, int to) {
+        byte[] number = utf8(accountNumber);
+        byte[] keyBytes = utf8(key);
+        byte[][] descriptions = new byte[to - from][];
+        int bytes = keyedBytes(number, keyBytes);
+        for (int i = from; i < to; i++) {
+            descriptions[i - from] = utf8(history.descriptionAt(i));
+            bytes += postedBytes(number, descriptions[i - from]);
+        }
+        lock.lock();
+        try {
+            ByteBuffer buf = beginRecord(bytes);
+            putKeyed(buf, number, keyBytes, result, value, timestamp, to - from);
+            for (int i = from; i < to; i++) {
+                putPosted(buf, number, history, i, descriptions[i - from]);
+            }
+            return endRecord(buf);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a transfer whose outgoing leg is posting {@code index} of the
+     * source account's history, as one record.
+     */
+    public long appendTransferred(String fromAccountNumber, String toAccountNumber, TransactionHistory history,
+                                  int index) {
+        return appendTransferred(fromAccountNumber, toAccountNumber, history, index, null, null, 0);
+    }
+
+    /**
+     * Appends a keyed transfer; as {@link #appendKeyed}, with the transfer
+     * whose outgoing leg is posting {@code index} of the source account's
+     * history.
+     */
+    public long appendKeyedTransfer(String fromAccountNumber, String toAccountNumber, String key,
+                                    PostingResult result, long timestamp, TransactionHistory history, int index) {
+        return appendTransferred(fromAccountNumber, toAccountNumber, history, index, key, result, timestamp);
+    }
+
+    private long appendTransferred(String fromAccountNumber, String toAccountNumber, TransactionHistory history,
+                                   int index, String key, PostingResult result, long timestamp) {
+        byte[] from = utf8(fromAccountNumber);
+        byte[] to = utf8(toAccountNumber);
+        byte[] description = utf8(history.descriptionAt(index));
+        byte[] keyBytes = key != null ? utf8(key) : null;
+        int bytes = 1 + 6 + from.length + to.length + description.length + 8 + 8;
+        lock.lock();
+        try {
+            ByteBuffer buf = beginRecord(keyBytes != null ? keyedBytes(from, keyBytes) + bytes : bytes);
+            if (keyBytes != null) putKeyed(buf, from, keyBytes, result, 0, timestamp, 1);
+            buf.put(TRANSFERRED);
+            putString(buf, from);
+            putString(buf, to);
+            buf.putLong(history.amountAt(index));
+            buf.putLong(history.timestampAt(index));
+            putString(buf, description);
+            return endRecord(buf);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends an account-number lease ending at sequence value {@code end}.
+     */
+    public long appendAccountNumbersLeased(long end) {
+        lock.lock();
+        try {
+            ByteBuffer buf = beginRecord(1 + 8);
+            buf.put(NUMBERS_LEASED);
+            buf.putLong(end);
+            return endRecord(buf);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a scheduled loan; replay pays it out with its LOAN_TAKEN posting.
+     */
+    public long appendLoanOpened(Loan loan, long timestamp) {
+        byte[] number = utf8(loan.accountNumber);
+        lock.lock();
+        try {
+            ByteBuffer buf = beginRecord(loanOpenedBytes(number));
+            putLoanOpened(buf, number, loan, timestamp);
+            return endRecord(buf);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a scheduled loan opened under an idempotency key; as
+     * {@link #appendKeyed}, with the loan's id as the value, so a retry finds
+     * the loan it opened.
+     */
+    public long appendKeyedLoanOpened(Loan loan, String key, long timestamp) {
+        byte[] number = utf8(loan.accountNumber);
+        byte[] keyBytes = utf8(key);
+        lock.lock();
+        try {
+            ByteBuffer buf = beginRecord(keyedBytes(number, keyBytes) + loanOpenedBytes(number));
+            putKeyed(buf, number, keyBytes, PostingResult.SUCCESS, loan.id, timestamp, 1);
+            putLoanOpened(buf, number, loan, timestamp);
+            return endRecord(buf);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a collected installment as one record, so recovery applies its
+     * interest and repayment postings both or not at all.
+     */
+    public long appendInstallmentPaid(Loan loan, long interest, long payment, long timestamp) {
+        byte[] number = utf8(loan.accountNumber);
+        lock.lock();
+        try {
+            ByteBuffer buf = beginRecord(1 + 2 + number.length + 8 + 8 + 8 + 8);
+            buf.put(LOAN_INSTALLMENT);
+            putString(buf, number);
+            buf.putLong(loan.id);
+            buf.putLong(interest);
+            buf.putLong(payment);
+            buf.putLong(timestamp);
+            return endRecord(buf);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until every record up to {@code position} has been forced to disk.
+     * @throws UncheckedIOException if the flusher failed to write the journal.
+     */
+    public void awaitDurable(long position) {
+        lock.lock();
+        try {
+            boolean interrupted = false;
+            while (durablePosition < position && failure == null) {
+                try {
+                    batchFlushed.await();
+                } catch (InterruptedException e) {
+                    interrupted = true; // The posting is already applied; finish waiting
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (durablePosition < position) {
+                throw new UncheckedIOException("Journal write failed", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Position just past the last record forced to disk. */
+    public long durablePosition() {
+        lock.lock();
+        try {
+            return durablePosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Position just past the last appended record. */
+    public long position() {
+        lock.lock();
+        try {
+            return appendedPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            batchReady.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    // --- Replication ---
+
+    /**
+     * Reads the journal's bytes from {@code position} on into {@code dst}, no
+     * further than what is durable, so whole records that can no longer be
+     * lost. Safe alongside appends.
+     * @return The number of bytes read; 0 at the durable end.
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        long available = durablePosition() - position;
+        if (available <= 0) return 0;
+        if (dst.remaining() > available) dst.limit(dst.position() + (int) available);
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position + total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * A checksum of the durable bytes just before {@code position}, so a
+     * follower and its leader can tell whether their journals agree up to
+     * there.
+     */
+    public int checksumBefore(long position) throws IOException {
+        long from = Math.max(0, position - TAIL_CHECK_BYTES);
+        ByteBuffer buf = ByteBuffer.allocate((int) (position - from));
+        if (read(buf, from) != buf.capacity()) {
+            throw new IOException("Journal ends before position " + position);
+        }
+        CRC32C check = new CRC32C();
+        check.update(buf.flip());
+        return (int) check.getValue();
+    }
+
+    /**
+     * Makes this a follower's journal: from now on it only takes whole
+     * records shipped from the leader, through {@link #appendReplicated}, and
+     * every other append fails.
+     */
+    public void followLeader() {
+        lock.lock();
+        try {
+            replica = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends whole, framed records exactly as the leader's journal holds them.
+     * @return The position just past them, to wait for with {@link #awaitDurable}.
+     */
+    public long appendReplicated(ByteBuffer records) {
+        lock.lock();
+        try {
+            if (closed || failure != null) {
+                throw new IllegalStateException("Journal is closed or has failed");
+            }
+            if (pending.remaining() < records.remaining()) {
+                int capacity = Math.max(pending.capacity() * 2, pending.position() + records.remaining());
+                ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+            appendedPosition += records.remaining();
+            pending.put(records);
+            batchReady.signal();
+            return appendedPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replays the whole records at the start of {@code records}, such as bytes
+     * read from a leader's journal, and stops before a record that is not
+     * complete yet.
+     * @return The number of bytes replayed; {@code records} is left positioned after them.
+     * @throws IllegalStateException if a complete record fails its checksum.
+     */
+    public static int replay(ByteBuffer records, Listener listener) {
+        CRC32C check = new CRC32C();
+        int start = records.position();
+        while (records.remaining() >= HEADER_BYTES) {
+            int at = records.position();
+            int length = records.getInt(at);
+            int checksum = records.getInt(at + 4);
+            if (length < 0 || length > MAX_RECORD_BYTES) {
+                throw new IllegalStateException("Replicated journal record of " + length + " bytes");
+            }
+            if (records.remaining() < HEADER_BYTES + length) break;
+            ByteBuffer payload = records.slice(at + HEADER_BYTES, length);
+            check.reset();
+            check.update(payload.duplicate());
+            if ((int) check.getValue() != checksum) {
+                throw new IllegalStateException("Replicated journal record fails its checksum");
+            }
+            decode(payload, listener);
+            records.position(at + HEADER_BYTES + length);
+        }
+        return records.position() - start;
+    }
+
+    // --- Group commit ---
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer batch;
+            long batchEnd;
+            lock.lock();
+            try {
+                while (pending.position() == 0 && !closed) {
+                    batchReady.awaitUninterruptibly();
+                }
+                if (pending.position() == 0) return; // Closed and drained
+                batch = pending;
+                pending = flushing;
+                flushing = batch;
+                batchEnd = appendedPosition;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+            batch.clear();
+
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durablePosition = batchEnd;
+                }
+                batchFlushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (error != null) return;
+        }
+    }
+
+    private ByteBuffer beginRecord(int maxPayload) {
+        if (closed || failure != null) {
+            throw new IllegalStateException("Journal is closed or has failed");
+        }
+        if (replica) throw new IllegalStateException("Journal follows a leader; post to the leader");
+        if (maxPayload > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Journal record too large: " + maxPayload + " bytes");
+        }
+        if (pending.remaining() < HEADER_BYTES + maxPayload) {
+            int capacity = Math.max(pending.capacity() * 2, pending.position() + HEADER_BYTES + maxPayload);
+            ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        recordStart = pending.position();
+        pending.position(recordStart + HEADER_BYTES); // Header is filled in by endRecord
+        return pending;
+    }
+
+    private long endRecord(ByteBuffer buf) {
+        int end = buf.position();
+        int length = end - recordStart - HEADER_BYTES;
+        crc.reset();
+        crc.update(buf.slice(recordStart + HEADER_BYTES, length));
+        buf.putInt(recordStart, length);
+        buf.putInt(recordStart + 4, (int) crc.getValue());
+        appendedPosition += end - recordStart;
+        batchReady.signal();
+        return appendedPosition;
+    }
+
+    // --- Replay ---
+
+    private static long replay(FileChannel channel, long from, Listener listener) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+        CRC32C crc = new CRC32C();
+        long position = from; // File offset of buf.position()
+        buf.limit(0);
+        while (true) {
+            if (buf.remaining() < HEADER_BYTES && !refill(channel, buf, position, HEADER_BYTES)) {
+                return position;
+            }
+            int length = buf.getInt(buf.position());
+            int checksum = buf.getInt(buf.position() + 4);
+            if (length <= 0 || length > MAX_RECORD_BYTES) return position; // Garbage tail
+            int recordBytes = HEADER_BYTES + length;
+            if (buf.remaining() < recordBytes) {
+                if (buf.capacity() < recordBytes) {
+                    buf = ByteBuffer.allocate(recordBytes).put(buf).flip();
+                }
+                if (!refill(channel, buf, position, recordBytes)) return position;
+            }
+            ByteBuffer payload = buf.slice(buf.position() + HEADER_BYTES, length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) return position; // Torn write
+            decode(payload, listener);
+            buf.position(buf.position() + recordBytes);
+            position += recordBytes;
+        }
+    }
+
+    /**
+     * Compacts the unread bytes to the front of the buffer and reads from the
+     * channel until at least {@code needed} bytes are available.
+     * @param position File offset of the first unread byte.
+     * @return false if the file ends first.
+     */
+    private static boolean refill(FileChannel channel, ByteBuffer buf, long position, int needed) throws IOException {
+        long at = position + buf.remaining();
+        buf.compact();
+        while (buf.position() < needed) {
+            int n = channel.read(buf, at);
+            if (n < 0) {
+                buf.flip();
+                return false;
+            }
+            at += n;
+        }
+        buf.flip();
+        return true;
+    }
+
+    private static void decode(ByteBuffer payload, Listener listener) {
+        byte kind = payload.get();
+        switch (kind) {
+            case ACCOUNT_OPENED -> {
+                String number = getString(payload);
+                String pin = getString(payload);
+                String name = getString(payload);
+                Account.AccountType type = ACCOUNT_TYPES[payload.get()];
+                listener.accountOpened(number, pin, name, type);
+            }
+            case POSTED -> {
+                String number = getString(payload);
+                Transaction.Type type = TRANSACTION_TYPES[payload.get()];
+                long amount = payload.getLong();
+                long timestamp = payload.getLong();
+                listener.posted(number, type, amount, timestamp, getString(payload));
+            }
+            case TRANSFERRED -> {
+                String from = getString(payload);
+                String to = getString(payload);
+                long amount = payload.getLong();
+                long timestamp = payload.getLong();
+                listener.transferred(from, to, amount, timestamp, getString(payload));
+            }
+            case NUMBERS_LEASED -> listener.accountNumbersLeased(payload.getLong());
+            case LOAN_OPENED -> {
+                String number = getString(payload);
+                long id = payload.getLong();
+                long principal = payload.getLong();
+                int rate = payload.getInt();
+                int term = payload.getInt();
+                long firstDueDay = payload.getLong();
+                listener.loanOpened(number, id, principal, rate, term, firstDueDay, payload.getLong());
+            }
+            case LOAN_INSTALLMENT -> {
+                String number = getString(payload);
+                long id = payload.getLong();
+                long interest = payload.getLong();
+                long payment = payload.getLong();
+                listener.installmentPaid(number, id, interest, payment, payload.getLong());
+            }
+            case KEYED -> {
+                String number = getString(payload);
+                String key = getString(payload);
+                PostingResult result = RESULTS[payload.get()];
+                long value = payload.getLong();
+                long timestamp = payload.getLong();
+                int records = Short.toUnsignedInt(payload.getShort());
+                for (int i = 0; i < records; i++) {
+                    decode(payload, listener); // The wrapped records, each encoded as its own record
+                }
+                listener.keyed(number, key, result, value, timestamp);
+            }
+            default -> throw new IllegalStateException("Unknown journal record kind " + kind);
+        }
+    }
+
+    // --- Encoding helpers ---
+
+    private static int postedBytes(byte[] number, byte[] description) {
+        return 1 + 4 + number.length + description.length + 1 + 8 + 8;
+    }
+
+    private static void putPosted(ByteBuffer buf, byte[] number, TransactionHistory history, int index,
+                                  byte[] description) {
+        buf.put(POSTED);
+        putString(buf, number);
+        buf.put((byte) history.typeAt(index).ordinal());
+        buf.putLong(history.amountAt(index));
+        buf.putLong(history.timestampAt(index));
+        putString(buf, description);
+    }
+
+    private static int loanOpenedBytes(byte[] number) {
+        return 1 + 2 + number.length + 8 + 8 + 4 + 4 + 8 + 8;
+    }
+
+    private static void putLoanOpened(ByteBuffer buf, byte[] number, Loan loan, long timestamp) {
+        buf.put(LOAN_OPENED);
+        putString(buf, number);
+        buf.putLong(loan.id);
+        buf.putLong(loan.principal);
+        buf.putInt(loan.annualRateBasisPoints);
+        buf.putInt(loan.termMonths);
+        buf.putLong(loan.firstDueDay);
+        buf.putLong(timestamp);
+    }
+
+    private static int keyedBytes(byte[] number, byte[] key) {
+        return 1 + 4 + number.length + key.length + 1 + 8 + 8 + 2;
+    }
+
+    /** The head of a KEYED record; the {@code records} wrapped records follow it. */
+    private static void putKeyed(ByteBuffer buf, byte[] number, byte[] key, PostingResult result, long value,
+                                 long timestamp, int records) {
+        buf.put(KEYED);
+        putString(buf, number);
+        putString(buf, key);
+        buf.put((byte) result.ordinal());
+        buf.putLong(value);
+        buf.putLong(timestamp);
+        buf.putShort((short) records);
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Ledger.checkText keeps names and descriptions short enough; this only stops a silent wrap. */
+    private static void putString(ByteBuffer buf, byte[] bytes) {
+        if (bytes.length > 0xFFFF) throw new IllegalArgumentException("String of " + bytes.length + " bytes");
+        buf.putShort((short) bytes.length);
+        buf.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buf) {
+        int length = Short.toUnsignedInt(buf.getShort());
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return s;
+    }
+}
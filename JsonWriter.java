@@ -0,0 +1,255 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes JSON straight to a byte stream, token by token.
+ * <p>
+ * Nothing is built up as objects first: names and values are encoded as
+ * UTF-8 into one fixed buffer that is handed to the stream whenever it fills,
+ * so a response of any length (a whole transaction history, say) costs the
+ * same small amount of memory. Numbers and amounts are rendered digit by digit
+ * without going through String. The writer tracks only where commas and
+ * colons go; it trusts callers to nest objects and arrays properly.
+ */
+final class JsonWriter implements Closeable {
+
+    private static final int MAX_DEPTH = 64;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int pos;
+    private boolean closed;
+    private long hasElements; // Bit d: the container at depth d already has an element
+    private int depth;
+    private boolean afterName;
+
+    JsonWriter(OutputStream out) {
+        this(out, 8192);
+    }
+
+    JsonWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buf = new byte[Math.max(bufferSize, 64)];
+    }
+
+    JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    /** Writes a member name; the next call writes its value. */
+    JsonWriter name(String name) throws IOException {
+        separate();
+        string(name);
+        put((byte) ':');
+        afterName = true;
+        return this;
+    }
+
+    /** Writes a string, or {@code null}. */
+    JsonWriter value(String value) throws IOException {
+        separate();
+        if (value == null) {
+            ascii("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    JsonWriter value(long value) throws IOException {
+        separate();
+        digits(value);
+        return this;
+    }
+
+    JsonWriter value(boolean value) throws IOException {
+        separate();
+        ascii(value ? "true" : "false");
+        return this;
+    }
+
+    /** Writes cents as a decimal number of rands, e.g. 123456 -> 1234.56. */
+    JsonWriter money(long cents) throws IOException {
+        separate();
+        if (cents < 0) {
+            put((byte) '-');
+            if (cents == Long.MIN_VALUE) { // -cents would overflow
+                digits(-(cents / Money.CENTS_PER_RAND));
+                put((byte) '.');
+                twoDigits((int) -(cents % Money.CENTS_PER_RAND));
+                return this;
+            }
+            cents = -cents;
+        }
+        digits(cents / Money.CENTS_PER_RAND);
+        put((byte) '.');
+        twoDigits((int) (cents % Money.CENTS_PER_RAND));
+        return this;
+    }
+
+    /**
+     * True once {@link #close} has begun: output the stream receives from then
+     * on is the end of the document, so a stream that has received nothing
+     * before knows it is getting the whole of it.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /** Hands any buffered output to the stream and closes it. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        drain();
+        out.close();
+    }
+
+    // --- Structure ---
+
+    private JsonWriter open(char bracket) throws IOException {
+        separate();
+        if (++depth >= MAX_DEPTH) throw new IllegalStateException("JSON nested deeper than " + MAX_DEPTH);
+        hasElements &= ~(1L << depth);
+        put((byte) bracket);
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        if (depth == 0) throw new IllegalStateException("No open object or array");
+        depth--;
+        put((byte) bracket);
+        return this;
+    }
+
+    /** Puts the comma before every element after the first, except a value that follows its name. */
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        long bit = 1L << depth;
+        if ((hasElements & bit) != 0) put((byte) ',');
+        hasElements |= bit;
+    }
+
+    // --- Encoding ---
+
+    private void string(String s) throws IOException {
+        put((byte) '"');
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    put((byte) '\\');
+                    put((byte) c);
+                } else if (c < 0x20) {
+                    escapeControl(c);
+                } else {
+                    put((byte) c);
+                }
+            } else if (c < 0x800) {
+                put((byte) (0xC0 | c >> 6));
+                put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                put((byte) (0xF0 | cp >> 18));
+                put((byte) (0x80 | cp >> 12 & 0x3F));
+                put((byte) (0x80 | cp >> 6 & 0x3F));
+                put((byte) (0x80 | cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                ascii("\\u");
+                hex4(c); // An unpaired surrogate has no UTF-8 form; keep it as an escape
+            } else {
+                put((byte) (0xE0 | c >> 12));
+                put((byte) (0x80 | c >> 6 & 0x3F));
+                put((byte) (0x80 | c & 0x3F));
+            }
+        }
+        put((byte) '"');
+    }
+
+    private void escapeControl(char c) throws IOException {
+        switch (c) {
+            case '\n' -> ascii("\\n");
+            case '\r' -> ascii("\\r");
+            case '\t' -> ascii("\\t");
+            case '\b' -> ascii("\\b");
+            case '\f' -> ascii("\\f");
+            default -> {
+                ascii("\\u");
+                hex4(c);
+            }
+        }
+    }
+
+    private void hex4(char c) throws IOException {
+        put(HEX[c >> 12 & 0xF]);
+        put(HEX[c >> 8 & 0xF]);
+        put(HEX[c >> 4 & 0xF]);
+        put(HEX[c & 0xF]);
+    }
+
+    private void digits(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            ascii("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            put((byte) '-');
+            value = -value;
+        }
+        if (pos + 19 > buf.length) drain();
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = pos - 1; i < j; i++, j--) { // Digits came out backwards
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+    }
+
+    private void twoDigits(int value) throws IOException {
+        put((byte) ('0' + value / 10));
+        put((byte) ('0' + value % 10));
+    }
+
+    private void ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            put((byte) s.charAt(i));
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (pos == buf.length) drain();
+        buf[pos++] = b;
+    }
+
+    private void drain() throws IOException {
+        if (pos == 0) return;
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+}
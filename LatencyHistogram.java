@@ -0,0 +1,99 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds, laid out like HdrHistogram: every
+ * power of two is split into {@value #HALF_SUB_BUCKETS} linear sub-buckets, so
+ * any value is counted with a relative error of at most 1/64 (about 1.6%)
+ * across the whole range of a long, in a fixed array of counters.
+ * <p>
+ * Recording is a few shifts and an atomic increment: no locks and no
+ * allocation, so it can stay on in production and be called from any number
+ * of threads. Readers see a live view; a percentile taken while others record
+ * may be off by the values in flight.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // Values below this are counted exactly
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKETS; // Up to Long.MAX_VALUE
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Records one latency; negative values (a clock step) count as 0. */
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(indexOf(nanos));
+        total.increment();
+        sum.add(nanos);
+        long seen = max.get();
+        while (nanos > seen && !max.compareAndSet(seen, nanos)) {
+            seen = max.get();
+        }
+    }
+
+    /** Records the time since {@code startNanos}, a {@link System#nanoTime()} reading. */
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    long count() {
+        return total.sum();
+    }
+
+    long maxNanos() {
+        return max.get();
+    }
+
+    double meanNanos() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    long sumNanos() {
+        return sum.sum();
+    }
+
+    /**
+     * The latency at or below which {@code percentile} percent of recordings
+     * fall, as the top of its bucket (never above the maximum); 0 if empty.
+     */
+    long percentileNanos(double percentile) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestEquivalent(i), maxNanos());
+        }
+        return maxNanos();
+    }
+
+    double percentile(double percentile, TimeUnit unit) {
+        return (double) percentileNanos(percentile) / unit.toNanos(1);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /** The largest value counted in bucket {@code index}. */
+    static long highestEquivalent(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        long lowest = (long) (index % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,1192 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Headless, thread-safe ledger engine.
+ * <p>
+ * Owns every {@link Account} and is the only place that mutates them. Each
+ * account maps onto one of a fixed number of lock stripes; a posting holds its
+ * stripe for the duration of the {@link Account} call, so postings to
+ * different accounts run in parallel while postings to the same account never
+ * lose updates. The fee and loan rules are the ones {@link Account} applies.
+ * All amounts are in cents (see {@link Money}). Scheduled {@link Loan}s are
+ * opened here and their installments collected in bulk by {@link LoanRun}.
+ * <p>
+ * A ledger opened with {@link #open(Path)} writes every mutation to a
+ * {@link Journal} while still holding the stripe, then waits for the journal's
+ * group commit outside the lock before reporting the result, so an operation
+ * that returned is durable. A ledger built with a constructor is in-memory only.
+ * <p>
+ * With a snapshot file, {@link #writeSnapshot()} periodically saves the whole
+ * ledger so that a restart loads the snapshot and replays only the journal
+ * written after it.
+ * <p>
+ * Every operation is counted by outcome and timed, journal wait included, in
+ * the ledger's {@link Metrics}.
+ * <p>
+ * Readers that only need the numbers (dashboards, the API) can use the
+ * projected views of {@link #readModels()} instead of the accounts: every
+ * posting is reported to them under its stripe and folded in asynchronously.
+ * <p>
+ * A durable ledger can also lead a {@link Replica} or several: with
+ * {@link #replicateTo} an operation only returns once enough followers hold
+ * its journal records durably too, so promoting a follower loses nothing
+ * that was reported done. If they do not in time, a posting reports
+ * {@link PostingResult#UNREPLICATED} (it stays made here), and changes are
+ * refused before they are applied until the followers catch up.
+ */
+public class Ledger implements AutoCloseable {
+
+    private final AccountIndex accounts;
+    private final ReentrantLock[] stripes;
+    private final int stripeMask;
+    private Journal journal; // null for an in-memory ledger; set once by open()
+    private Path snapshotFile; // null if snapshots are disabled
+    private Snapshot snapshot; // Latest snapshot, backing histories not yet read; guarded by this
+    private ScheduledExecutorService snapshotScheduler;
+    private final AccountNumbers accountNumbers = new AccountNumbers(0, this::accountNumbersLeased);
+    private final AtomicLong loanIds = new AtomicLong(1); // Next loan id; restored past every id seen
+    private final Metrics metrics = new Metrics();
+    private volatile ReadModels readModels; // null until first asked for
+    private volatile RiskRules riskRules = RiskRules.NONE;
+    private final IdempotencyCache idempotency = new IdempotencyCache();
+    private volatile ReplicationLeader replication; // null unless this ledger ships its journal to followers
+    private Recovery replicated; // Applies records from a leader; created on first use, under lockAll
+
+    public Ledger() {
+        this(Runtime.getRuntime().availableProcessors() * 8);
+    }
+
+    /**
+     * @param concurrency Expected number of concurrently posting threads; rounded
+     *                    up to a power of two to size the lock stripes.
+     */
+    public Ledger(int concurrency) {
+        int size = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+        accounts = new AccountIndex(size);
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        stripeMask = size - 1;
+    }
+
+    /**
+     * Opens a durable ledger, rebuilding the accounts by replaying the journal.
+     * @param journalFile The journal to recover from and append to; created if missing.
+     */
+    public static Ledger open(Path journalFile) throws IOException {
+        return open(journalFile, null);
+    }
+
+    /**
+     * Opens a durable ledger from its latest snapshot plus the journal written after it.
+     * @param journalFile The journal to recover from and append to; created if missing.
+     * @param snapshotFile Where snapshots are kept, or null to always replay the full journal.
+     */
+    public static Ledger open(Path journalFile, Path snapshotFile) throws IOException {
+        Ledger ledger = new Ledger();
+        long replayFrom = ledger.restore(snapshotFile);
+        ledger.snapshotFile = snapshotFile;
+        ledger.journal = Journal.open(journalFile, replayFrom, ledger.new Recovery());
+        return ledger;
+    }
+
+    /**
+     * Loads a ledger from its snapshot and journal without taking them over,
+     * e.g. for a report run while the application is using them. The copy is
+     * in memory only: nothing posted to it is journaled.
+     */
+    public static Ledger openReadOnly(Path journalFile, Path snapshotFile) throws IOException {
+        Ledger ledger = new Ledger();
+        Journal.replay(journalFile, ledger.restore(snapshotFile), ledger.new Recovery());
+        return ledger;
+    }
+
+    /**
+     * Loads the latest snapshot, if there is one.
+     * @return The journal position to replay from.
+     */
+    private long restore(Path snapshotFile) throws IOException {
+        long replayFrom = 0;
+        if (snapshotFile != null) {
+            List<Account> restored = new ArrayList<>();
+            List<Loan> loans = new ArrayList<>();
+            snapshot = Snapshot.load(snapshotFile, restored, loans, idempotency);
+            if (snapshot != null) {
+                for (Account account : restored) {
+                    accounts.putIfAbsent(account);
+                }
+                for (Loan loan : loans) {
+                    accounts.get(loan.accountNumber).attachLoan(loan);
+                    loanIds.accumulateAndGet(loan.id + 1, Math::max);
+                }
+                replayFrom = snapshot.getJournalPosition();
+                accountNumbers.advanceTo(snapshot.getAccountSequence());
+            }
+        }
+        return replayFrom;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        if (replication != null) replication.close();
+        if (journal != null) journal.close();
+        synchronized (this) {
+            if (readModels != null) readModels.close();
+            if (snapshot != null) snapshot.close();
+        }
+    }
+
+    // --- Snapshots ---
+
+    /**
+     * Writes a snapshot every {@code period}, on a background thread.
+     */
+    public synchronized void scheduleSnapshots(long period, TimeUnit unit) {
+        if (snapshotFile == null) throw new IllegalStateException("Ledger has no snapshot file");
+        if (snapshotScheduler != null) snapshotScheduler.shutdownNow();
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ledger-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                writeSnapshot();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Ledger snapshot failed: " + e); // Keep posting; retry next period
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Saves the whole ledger to the snapshot file.
+     * <p>
+     * Postings are paused only while every account's balance, loan amount and
+     * history length are captured; histories are then copied one account at a
+     * time under that account's stripe while postings continue.
+     */
+    public synchronized void writeSnapshot() throws IOException {
+        if (journal == null || snapshotFile == null) throw new IllegalStateException("Ledger has no snapshot file");
+
+        List<Snapshot.Entry> entries = new ArrayList<>(accounts.size());
+        List<Loan> loans = new ArrayList<>();
+        IdempotencyCache.Remembered keys;
+        long journalPosition;
+        long accountSequence;
+        lockAll();
+        try {
+            journalPosition = journal.position();
+            accountSequence = accountNumbers.position(); // Covers every lease journaled before journalPosition
+            for (Account account : accounts.values()) {
+                entries.add(new Snapshot.Entry(account, account.getBalance(), account.getLoanAmount(),
+                        account.getTransactionCount()));
+                for (Loan loan : account.getLoans()) {
+                    loans.add(loan.copy());
+                }
+            }
+            keys = idempotency.remembered(); // Keys change only under a stripe, so these match the journal position
+        } finally {
+            unlockAll();
+        }
+        journal.awaitDurable(journalPosition); // Never describe state the journal could still lose
+
+        List<Snapshot.History> histories = new ArrayList<>(entries.size());
+        Snapshot written = Snapshot.write(snapshotFile, entries, loans, keys, entry -> {
+            ReentrantLock lock = stripeFor(entry.account.getAccountNumber());
+            lock.lock();
+            try {
+                // Still unread means nothing was appended since the capture, so the counts match
+                Snapshot.History unread = entry.account.getSnapshotHistory();
+                if (unread != null && Snapshot.canCopy(unread)) {
+                    entry.history = unread;
+                } else {
+                    entry.encoded = entry.account.getTransactionHistory().encode(entry.historyCount);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }, journalPosition, accountSequence, histories);
+
+        // Repoint unread histories at the new file so the old one can be closed
+        for (int i = 0; i < entries.size(); i++) {
+            Account account = entries.get(i).account;
+            ReentrantLock lock = stripeFor(account.getAccountNumber());
+            lock.lock();
+            try {
+                account.moveSnapshotHistory(histories.get(i));
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (snapshot != null) snapshot.close();
+        snapshot = written;
+    }
+
+    // --- Accounts ---
+
+    /**
+     * Longest account holder name or posting description, in chars; at up to
+     * three UTF-8 bytes per char it fits the journal's and snapshot's string
+     * fields.
+     */
+    static final int MAX_TEXT_LENGTH = 1024;
+
+    /**
+     * Checks a name or description before anything is posted with it.
+     * @throws IllegalArgumentException if it is null or longer than {@value #MAX_TEXT_LENGTH} chars.
+     */
+    static void checkText(String text) {
+        if (text == null) throw new IllegalArgumentException("Text is required");
+        if (text.length() > MAX_TEXT_LENGTH) {
+            throw new IllegalArgumentException("Text longer than " + MAX_TEXT_LENGTH + " characters");
+        }
+    }
+
+    /**
+     * Opens a new account under a freshly allocated, unique account number.
+     * @return The new account.
+     */
+    public Account openAccount(String accountHolderName, String pin, Account.AccountType type) {
+        return openAccountWithCredential(accountHolderName, Pins.hash(pin), type);
+    }
+
+    /**
+     * Opens a new account whose PIN has already been hashed, e.g. off the UI thread.
+     * @param pinHash A credential from {@link Pins#hash}.
+     */
+    Account openAccountWithCredential(String accountHolderName, String pinHash, Account.AccountType type) {
+        while (true) {
+            Account account = new Account(generateAccountNumber(), pinHash, accountHolderName, type);
+            if (addAccount(account)) {
+                return account;
+            }
+        }
+    }
+
+    /**
+     * Registers an existing account (e.g. demo or imported data).
+     * @return false if the account number is already taken.
+     * @throws IllegalArgumentException If the account number is not 10 digits or the name is too long.
+     */
+    public boolean addAccount(Account account) {
+        checkText(account.getAccountHolderName());
+        checkReplicated();
+        long journalPosition = 0;
+        ReentrantLock lock = stripeFor(account.getAccountNumber());
+        lock.lock();
+        try {
+            if (accounts.putIfAbsent(account) != null) {
+                return false;
+            }
+            ReadModels views = readModels;
+            if (views != null) views.add(account);
+            // Journaled under the stripe so it precedes any posting to the account
+            if (journal != null) journalPosition = journal.appendAccountOpened(account);
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(journalPosition);
+        return true;
+    }
+
+    /** @return The account, or null if there is no account with that number. */
+    public Account getAccount(String accountNumber) {
+        return accounts.get(accountNumber);
+    }
+
+    public Collection<Account> getAccounts() {
+        return Collections.unmodifiableCollection(accounts.values());
+    }
+
+    public int size() {
+        return accounts.size();
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * The query side of the ledger, started on first use: views seeded from
+     * every account's current state and kept up to date by projector threads.
+     */
+    synchronized ReadModels readModels() {
+        if (readModels == null) {
+            ReadModels views = new ReadModels();
+            lockAll(); // Every account seeded before any posting to it is reported
+            try {
+                for (Account account : accounts.values()) {
+                    views.add(account);
+                }
+                readModels = views;
+            } finally {
+                unlockAll();
+            }
+            views.start();
+            metrics.watch(views.projections());
+        }
+        return readModels;
+    }
+
+    // --- Postings ---
+
+    public PostingResult deposit(String accountNumber, long amount, String description) {
+        return deposit(accountNumber, amount, description, null);
+    }
+
+    /**
+     * @param key Idempotency key, or null: a repeat of a key already used on
+     *            this account returns the first call's result without posting
+     *            again (see {@link IdempotencyCache}). The same applies to the
+     *            other postings that take one.
+     */
+    public PostingResult deposit(String accountNumber, long amount, String description, String key) {
+        checkText(description);
+        return post(Metrics.Op.DEPOSIT, accountNumber, key, account ->
+                account.deposit(amount, description) ? PostingResult.SUCCESS : PostingResult.INVALID_AMOUNT);
+    }
+
+    public PostingResult withdraw(String accountNumber, long amount, String description) {
+        return withdraw(accountNumber, amount, description, null);
+    }
+
+    public PostingResult withdraw(String accountNumber, long amount, String description, String key) {
+        checkText(description);
+        if (amount <= 0) return refused(Metrics.Op.WITHDRAW, PostingResult.INVALID_AMOUNT);
+        return post(Metrics.Op.WITHDRAW, accountNumber, key,
+                account -> withdrawScreened(account, amount, description));
+    }
+
+    public long applyInterest(String accountNumber, int rateBasisPoints) {
+        return applyInterest(accountNumber, rateBasisPoints, null);
+    }
+
+    /**
+     * Applies interest to a savings account.
+     * @param rateBasisPoints The interest rate in basis points (50 = 0.5%).
+     * @param key Idempotency key, or null: a repeat returns the interest the
+     *            first call credited without crediting again.
+     * @return The interest credited, or 0 if none (unknown account, not savings, or no balance).
+     */
+    public long applyInterest(String accountNumber, int rateBasisPoints, String key) {
+        long start = System.nanoTime();
+        IdempotencyCache.checkKey(key);
+        checkReplicated();
+        Account account = accounts.get(accountNumber);
+        if (account == null) {
+            metrics.record(Metrics.Op.INTEREST, PostingResult.ACCOUNT_NOT_FOUND, start);
+            return 0;
+        }
+
+        long interest;
+        long journalPosition;
+        ReentrantLock lock = stripeFor(accountNumber);
+        lock.lock();
+        try {
+            if (key == null) {
+                int mark = account.getTransactionHistory().size();
+                interest = account.applyInterest(rateBasisPoints);
+                journalPosition = journalSince(account, mark);
+            } else {
+                String scopedKey = IdempotencyCache.scope(accountNumber, key);
+                IdempotencyCache.Outcome seen = idempotency.get(scopedKey);
+                if (seen != null) {
+                    metrics.count(Metrics.Op.DUPLICATE);
+                    interest = seen.value;
+                } else {
+                    int mark = account.getTransactionHistory().size();
+                    interest = account.applyInterest(rateBasisPoints);
+                    remember(account, scopedKey, key, IdempotencyCache.Outcome.of(PostingResult.SUCCESS, interest),
+                            mark);
+                }
+                journalPosition = journalPosition();
+            }
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(journalPosition);
+        metrics.record(Metrics.Op.INTEREST, start);
+        return interest;
+    }
+
+    public PostingResult takeLoan(String accountNumber, long amount) {
+        return takeLoan(accountNumber, amount, null);
+    }
+
+    public PostingResult takeLoan(String accountNumber, long amount, String key) {
+        if (amount <= 0) return refused(Metrics.Op.LOAN, PostingResult.INVALID_AMOUNT);
+        return post(Metrics.Op.LOAN, accountNumber, key, account ->
+                account.takeLoan(amount) ? PostingResult.SUCCESS : PostingResult.LOAN_OUTSTANDING);
+    }
+
+    public PostingResult repayLoan(String accountNumber, long amount) {
+        return repayLoan(accountNumber, amount, null);
+    }
+
+    public PostingResult repayLoan(String accountNumber, long amount, String key) {
+        if (amount <= 0) return refused(Metrics.Op.REPAY, PostingResult.INVALID_AMOUNT);
+        return post(Metrics.Op.REPAY, accountNumber, key, account -> {
+            if (account.getFlatLoanAmount() == 0) return PostingResult.NO_LOAN;
+            return account.repayLoan(amount) ? PostingResult.SUCCESS : PostingResult.INSUFFICIENT_FUNDS;
+        });
+    }
+
+    public Loan openLoan(String accountNumber, long principal, int annualRateBasisPoints, int termMonths) {
+        return openLoan(accountNumber, principal, annualRateBasisPoints, termMonths, null);
+    }
+
+    /**
+     * Opens a scheduled loan and pays the principal into the account. The
+     * first installment falls due a month from today, the rest monthly after it.
+     * @param annualRateBasisPoints Yearly interest on the outstanding principal (1250 = 12.5%).
+     * @param key Idempotency key, or null: a repeat returns the loan the first
+     *            call opened without paying out again.
+     * @return The loan, or null if there is no such account (or, for a
+     *         repeat, the loan it opened has since been paid off).
+     * @throws IllegalArgumentException If the principal or term is not positive or the rate is negative.
+     */
+    public Loan openLoan(String accountNumber, long principal, int annualRateBasisPoints, int termMonths,
+                         String key) {
+        long start = System.nanoTime();
+        IdempotencyCache.checkKey(key);
+        checkReplicated();
+        Account account = accounts.get(accountNumber);
+        if (account == null) {
+            metrics.record(Metrics.Op.SCHEDULED_LOAN, PostingResult.ACCOUNT_NOT_FOUND, start);
+            return null;
+        }
+
+        long firstDueDay = LocalDate.now().plusMonths(1).toEpochDay();
+        String scopedKey = key != null ? IdempotencyCache.scope(accountNumber, key) : null;
+        Loan loan;
+        long journalPosition = 0;
+        ReentrantLock lock = stripeFor(accountNumber);
+        lock.lock();
+        try {
+            IdempotencyCache.Outcome seen = scopedKey != null ? idempotency.get(scopedKey) : null;
+            if (seen != null) {
+                metrics.count(Metrics.Op.DUPLICATE);
+                loan = loanById(account, seen.value);
+                journalPosition = journalPosition();
+            } else {
+                loan = new Loan(loanIds.getAndIncrement(), accountNumber, principal, annualRateBasisPoints,
+                        termMonths, firstDueDay);
+                long now = System.currentTimeMillis();
+                account.openLoan(loan, now);
+                changed(account, 1);
+                if (scopedKey != null) {
+                    idempotency.put(scopedKey, IdempotencyCache.Outcome.of(PostingResult.SUCCESS, loan.id), now);
+                }
+                if (journal != null) {
+                    journalPosition = scopedKey != null
+                            ? journal.appendKeyedLoanOpened(loan, key, now)
+                            : journal.appendLoanOpened(loan, now);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(journalPosition);
+        metrics.record(Metrics.Op.SCHEDULED_LOAN, start);
+        return loan;
+    }
+
+    /**
+     * Moves money between two accounts atomically: the debit, the credit and
+     * their journal record happen together or not at all, and both legs are
+     * posted as linked TRANSFER_OUT/TRANSFER_IN transactions. No withdrawal fee
+     * is charged.
+     * <p>
+     * Both accounts' stripes are held for the transfer, always taken in stripe
+     * order (once if both accounts share one), so any number of concurrent
+     * transfers between overlapping accounts cannot deadlock.
+     */
+    public PostingResult transfer(String fromAccountNumber, String toAccountNumber, long amount, String description) {
+        return transfer(fromAccountNumber, toAccountNumber, amount, description, null);
+    }
+
+    /** @param key Idempotency key, or null; scoped to the source account. */
+    public PostingResult transfer(String fromAccountNumber, String toAccountNumber, long amount, String description,
+                                  String key) {
+        long start = System.nanoTime();
+        PostingResult result = transferFunds(fromAccountNumber, toAccountNumber, amount, description, key);
+        metrics.record(Metrics.Op.TRANSFER, result, start);
+        return result;
+    }
+
+    private PostingResult transferFunds(String fromAccountNumber, String toAccountNumber, long amount,
+                                        String description, String key) {
+        IdempotencyCache.checkKey(key);
+        checkText(description);
+        if (amount <= 0) return PostingResult.INVALID_AMOUNT;
+        if (fromAccountNumber.equals(toAccountNumber)) return PostingResult.SAME_ACCOUNT;
+        Account from = accounts.get(fromAccountNumber);
+        Account to = accounts.get(toAccountNumber);
+        if (from == null || to == null) return PostingResult.ACCOUNT_NOT_FOUND;
+        if (replicationBehind()) return PostingResult.REPLICATION_BEHIND;
+        String scopedKey = key != null ? IdempotencyCache.scope(fromAccountNumber, key) : null;
+
+        int first = stripeIndex(fromAccountNumber);
+        int second = stripeIndex(toAccountNumber);
+        if (first > second) {
+            int t = first;
+            first = second;
+            second = t;
+        }
+        long journalPosition;
+        PostingResult result;
+        stripes[first].lock();
+        if (second != first) stripes[second].lock();
+        try {
+            IdempotencyCache.Outcome seen = scopedKey != null ? idempotency.get(scopedKey) : null;
+            if (seen != null) {
+                metrics.count(Metrics.Op.DUPLICATE);
+                result = seen.result;
+                journalPosition = journalPosition(); // Covers the first call's record, which may not be durable yet
+            } else {
+                TransactionHistory history = from.getTransactionHistory();
+                int index = history.size();
+                long now = System.currentTimeMillis();
+                RiskRules rules = riskRules;
+                result = screen(rules, from, amount, description, now);
+                if (result.isSuccess()) {
+                    if (from.transferTo(to, amount, description, now)) {
+                        if (!rules.isEmpty()) from.riskProfile().withdrew(now, amount);
+                        changed(from, 1);
+                        changed(to, 1);
+                    } else {
+                        result = PostingResult.INSUFFICIENT_FUNDS;
+                    }
+                }
+                journalPosition = 0;
+                if (scopedKey != null) {
+                    idempotency.put(scopedKey, IdempotencyCache.Outcome.of(result), now);
+                    if (journal != null) {
+                        journalPosition = result.isSuccess()
+                                ? journal.appendKeyedTransfer(fromAccountNumber, toAccountNumber, key, result, now,
+                                        history, index)
+                                : journal.appendKeyed(fromAccountNumber, key, result, 0, now, history, index, index);
+                    }
+                } else if (result.isSuccess() && journal != null) {
+                    journalPosition = journal.appendTransferred(fromAccountNumber, toAccountNumber, history, index);
+                }
+            }
+        } finally {
+            if (second != first) stripes[second].unlock();
+            stripes[first].unlock();
+        }
+        if (!awaitDurable(journalPosition) && result.isSuccess()) result = PostingResult.UNREPLICATED;
+        return result;
+    }
+
+    /**
+     * Returns an account's transaction history. It is safe to read while other
+     * threads keep posting: every index below {@code size()} is stable.
+     * @return The history, or null if there is no such account.
+     */
+    public TransactionHistory getTransactionHistory(String accountNumber) {
+        Account account = accounts.get(accountNumber);
+        if (account == null) return null;
+
+        ReentrantLock lock = stripeFor(accountNumber);
+        lock.lock();
+        try {
+            return account.getTransactionHistory(); // Under the stripe: may read it from the snapshot
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- Risk rules ---
+
+    /**
+     * Screens every later withdrawal and transfer with these rules; see
+     * {@link RiskRules}. Counters start from the postings made after the
+     * first rules are set, and are not rebuilt from the journal.
+     */
+    void setRiskRules(RiskRules rules) {
+        riskRules = rules;
+    }
+
+    RiskRules getRiskRules() {
+        return riskRules;
+    }
+
+    /**
+     * Notes a successful login from a device, for the new-device rules.
+     * @param device Anything that identifies the client, e.g. an API device id.
+     * @return true if the account had not used the device recently.
+     */
+    boolean recordLogin(String accountNumber, String device) {
+        Account account = accounts.get(accountNumber);
+        if (account == null || riskRules.isEmpty()) return false;
+        long fingerprint = RiskProfile.fingerprint(device);
+        ReentrantLock lock = stripeFor(accountNumber);
+        lock.lock();
+        try {
+            return account.riskProfile().loggedIn(System.currentTimeMillis(), fingerprint);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- Replication ---
+
+    /**
+     * Ships the journal to followers that connect on {@code port} of the
+     * loopback interface (see {@link ReplicationLeader}). From now on every
+     * operation waits, after its own journal write, until {@code acks}
+     * followers have it durably as well; with 0 they catch up asynchronously.
+     * A wait longer than {@code timeoutMillis} gives up: the operation stays
+     * applied and journaled here, and a posting reports
+     * {@link PostingResult#UNREPLICATED}. Until followers catch up, postings
+     * are then refused with {@link PostingResult#REPLICATION_BEHIND} and the
+     * other changes (accounts, interest, scheduled loans) with an
+     * IllegalStateException, both before anything is applied.
+     */
+    synchronized ReplicationLeader replicateTo(int port, int acks, long timeoutMillis) throws IOException {
+        if (journal == null) throw new IllegalStateException("Only a durable ledger can be replicated");
+        if (replication != null) throw new IllegalStateException("Ledger is already replicated");
+        replication = new ReplicationLeader(journal, port, acks, timeoutMillis);
+        return replication;
+    }
+
+    /**
+     * Turns this ledger into a follower: local postings are refused from now
+     * on, and {@link #applyReplicated} brings in the leader's.
+     */
+    void followLeader() {
+        if (journal == null) throw new IllegalStateException("Only a durable ledger can follow a leader");
+        journal.followLeader();
+    }
+
+    /** Where this ledger's journal ends, and so where a leader resumes shipping to it. */
+    long journalEnd() {
+        return journal.position();
+    }
+
+    /** @see Journal#checksumBefore */
+    int journalChecksumBefore(long position) throws IOException {
+        return journal.checksumBefore(position);
+    }
+
+    /**
+     * Applies the whole journal records at the start of {@code records},
+     * shipped from the leader, and appends them to this ledger's journal
+     * byte for byte. Readers see either none or all of them: every stripe is
+     * held meanwhile. Accounts and postings are reported to the read models.
+     * @return The journal position to wait for with {@link #awaitJournal}
+     *         before acknowledging; {@code records} is left after the records
+     *         applied, at the start of any incomplete one.
+     */
+    long applyReplicated(ByteBuffer records) {
+        int start = records.position();
+        lockAll();
+        try {
+            if (replicated == null) replicated = new Replicated();
+            int applied = Journal.replay(records, replicated);
+            if (applied == 0) return journal.position();
+            return journal.appendReplicated(records.duplicate().position(start).limit(start + applied));
+        } finally {
+            unlockAll();
+        }
+    }
+
+    // --- Batch support ---
+
+    /**
+     * Credits interest to a savings account unless it already has an interest
+     * posting with this description stamped at or after {@code since}, so a
+     * batch restarted after a crash cannot pay the same period twice. The
+     * check looks at the account's interest postings only (see
+     * {@link TransactionHistory#lastInterestIndexOf}). The posting is
+     * journaled but not waited for; see {@link #awaitJournal()}.
+     * @return The interest credited (0 if none was due), or -1 if already credited.
+     */
+    long creditInterestOnce(Account account, int rateBasisPoints, String description, long since) {
+        ReentrantLock lock = stripeFor(account.getAccountNumber());
+        lock.lock();
+        try {
+            TransactionHistory history = account.getTransactionHistory();
+            if (history.lastInterestIndexOf(description, since) >= 0) return -1;
+            int mark = history.size();
+            long interest = account.applyInterest(rateBasisPoints, description);
+            journalSince(account, mark);
+            return interest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs several postings against one account under a single acquisition of
+     * its stripe, e.g. the rows of an import batch, and journals whatever they
+     * posted without waiting; see {@link #awaitJournal()}.
+     * @return false if there is no such account.
+     */
+    boolean postBatch(String accountNumber, Consumer<Account> batch) {
+        Account account = accounts.get(accountNumber);
+        if (account == null) return false;
+
+        ReentrantLock lock = stripeFor(accountNumber);
+        lock.lock();
+        try {
+            int mark = account.getTransactionHistory().size();
+            batch.accept(account);
+            journalSince(account, mark);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Posts a deposit or withdrawal from within a {@link #postBatch} batch,
+     * which holds the account's stripe and journals it. A withdrawal is
+     * screened by the risk rules and charged its fee as by {@link #withdraw},
+     * and the row is counted and timed under its op like a single posting,
+     * less the batch's journal wait.
+     */
+    PostingResult postInBatch(Account account, boolean withdrawal, long amount, String description) {
+        long start = System.nanoTime();
+        PostingResult result;
+        if (withdrawal) {
+            result = amount > 0 ? withdrawScreened(account, amount, description) : PostingResult.INVALID_AMOUNT;
+        } else {
+            result = account.deposit(amount, description) ? PostingResult.SUCCESS : PostingResult.INVALID_AMOUNT;
+        }
+        metrics.record(withdrawal ? Metrics.Op.WITHDRAW : Metrics.Op.DEPOSIT, result, start);
+        return result;
+    }
+
+    /** Receives each installment a collection pays or misses. */
+    interface InstallmentObserver {
+        void paid(Loan loan, long payment);
+
+        void missed(Loan loan);
+    }
+
+    /**
+     * Collects every installment of the account's loans that is due on or
+     * before {@code day}, oldest loan first, under a single acquisition of its
+     * stripe. Overdue installments are caught up while the balance lasts; a
+     * loan whose installment the balance does not cover is left for the next
+     * collection. Journaled without waiting; see {@link #awaitJournal()}.
+     * A collection that is repeated for the same day finds nothing due.
+     */
+    void collectInstallments(Account account, long day, InstallmentObserver observer) {
+        ReentrantLock lock = stripeFor(account.getAccountNumber());
+        lock.lock();
+        try {
+            int mark = account.getTransactionHistory().size();
+            for (Loan loan : account.getLoans()) {
+                while (!loan.isPaidOff() && loan.dueDay() <= day) {
+                    long start = System.nanoTime();
+                    long interest = loan.interestDue();
+                    long now = System.currentTimeMillis();
+                    long payment = account.payInstallment(loan, now);
+                    if (payment == 0) {
+                        metrics.record(Metrics.Op.INSTALLMENT, PostingResult.INSUFFICIENT_FUNDS, start);
+                        observer.missed(loan);
+                        break;
+                    }
+                    if (journal != null) journal.appendInstallmentPaid(loan, interest, payment, now);
+                    metrics.record(Metrics.Op.INSTALLMENT, start);
+                    observer.paid(loan, payment);
+                }
+            }
+            changed(account, account.getTransactionHistory().size() - mark);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- Posting pipeline ---
+
+    /** Number of lock stripes, a power of two; see {@link PostingPipeline}. */
+    int stripeCount() {
+        return stripes.length;
+    }
+
+    /** The shard owning an account when stripes are dealt round-robin to {@code shards} (a power of two). */
+    int shardOf(String accountNumber, int shards) {
+        return stripeIndex(accountNumber) & (shards - 1);
+    }
+
+    /** Takes every stripe of a shard, in stripe order like every other multi-stripe lock here. */
+    void lockShard(int shard, int shards) {
+        for (int i = shard; i < stripes.length; i += shards) {
+            stripes[i].lock();
+        }
+    }
+
+    void unlockShard(int shard, int shards) {
+        for (int i = shard; i < stripes.length; i += shards) {
+            stripes[i].unlock();
+        }
+    }
+
+    /**
+     * A deposit or withdrawal (with its fee) for the posting pipeline, which
+     * holds the account's shard and times the operation itself. Journaled
+     * without waiting; see {@link #awaitJournal()}.
+     * @param key Idempotency key, or null; as for {@link #deposit(String, long, String, String)}.
+     */
+    PostingResult postHeld(Account account, boolean withdrawal, long amount, String description, String key) {
+        if (withdrawal && amount <= 0) return PostingResult.INVALID_AMOUNT;
+        if (replicationBehind()) return PostingResult.REPLICATION_BEHIND;
+        if (key != null) {
+            return postOnce(account, key, withdrawal
+                    ? a -> withdrawScreened(a, amount, description)
+                    : a -> a.deposit(amount, description) ? PostingResult.SUCCESS : PostingResult.INVALID_AMOUNT);
+        }
+        int mark = account.getTransactionHistory().size();
+        PostingResult result;
+        if (withdrawal) {
+            result = withdrawScreened(account, amount, description);
+        } else {
+            result = account.deposit(amount, description) ? PostingResult.SUCCESS : PostingResult.INVALID_AMOUNT;
+        }
+        journalSince(account, mark);
+        return result;
+    }
+
+    /**
+     * Waits until everything journaled so far is durable, so a batch that
+     * posted without waiting can record its progress.
+     * @return false if it is durable here but followers did not acknowledge it in time.
+     */
+    boolean awaitJournal() {
+        return journal == null || awaitDurable(journal.position());
+    }
+
+    /**
+     * Whether followers are behind, so changes are refused until they catch
+     * up (see {@link ReplicationLeader#isBehind}).
+     */
+    boolean replicationBehind() {
+        ReplicationLeader leader = replication;
+        return leader != null && leader.isBehind();
+    }
+
+    // --- Internals ---
+
+    /** A mutation of one account, run while holding that account's stripe. */
+    private interface Posting {
+        PostingResult apply(Account account);
+    }
+
+    /** @param key Idempotency key, or null. */
+    private PostingResult post(Metrics.Op op, String accountNumber, String key, Posting posting) {
+        long start = System.nanoTime();
+        IdempotencyCache.checkKey(key);
+        Account account = accounts.get(accountNumber);
+        if (account == null) return refused(op, PostingResult.ACCOUNT_NOT_FOUND);
+        if (replicationBehind()) return refused(op, PostingResult.REPLICATION_BEHIND);
+
+        PostingResult result;
+        long journalPosition;
+        ReentrantLock lock = stripeFor(accountNumber);
+        lock.lock();
+        try {
+            if (key == null) {
+                int mark = account.getTransactionHistory().size();
+                result = posting.apply(account);
+                journalPosition = journalSince(account, mark);
+            } else {
+                result = postOnce(account, key, posting);
+                journalPosition = journalPosition(); // Also covers a repeat's first call, which may still be waiting
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!awaitDurable(journalPosition) && result.isSuccess()) result = PostingResult.UNREPLICATED;
+        metrics.record(op, result, start);
+        return result;
+    }
+
+    /**
+     * Runs a keyed posting, journaling its result with the postings it made,
+     * unless the key was used on the account before, in which case the first
+     * result is returned and nothing runs. Called under the account's stripe.
+     */
+    private PostingResult postOnce(Account account, String key, Posting posting) {
+        String scopedKey = IdempotencyCache.scope(account.getAccountNumber(), key);
+        IdempotencyCache.Outcome seen = idempotency.get(scopedKey);
+        if (seen != null) {
+            metrics.count(Metrics.Op.DUPLICATE);
+            return seen.result;
+        }
+        int mark = account.getTransactionHistory().size();
+        PostingResult result = posting.apply(account);
+        remember(account, scopedKey, key, IdempotencyCache.Outcome.of(result), mark);
+        return result;
+    }
+
+    /**
+     * Remembers a keyed operation's outcome and journals it with the postings
+     * the operation made since {@code mark}. Called under the account's stripe.
+     */
+    private void remember(Account account, String scopedKey, String key, IdempotencyCache.Outcome outcome,
+                          int mark) {
+        TransactionHistory history = account.getTransactionHistory();
+        long now = System.currentTimeMillis();
+        idempotency.put(scopedKey, outcome, now);
+        changed(account, history.size() - mark);
+        if (journal != null) {
+            journal.appendKeyed(account.getAccountNumber(), key, outcome.result, outcome.value, now, history, mark,
+                    history.size());
+        }
+    }
+
+    /** @return The account's scheduled loan with this id, or null if it has been paid off. */
+    private static Loan loanById(Account account, long loanId) {
+        for (Loan loan : account.getLoans()) {
+            if (loan.id == loanId) return loan;
+        }
+        return null;
+    }
+
+    /**
+     * A withdrawal (with its fee) once the risk rules allow it. Called under
+     * the account's stripe, which also guards its {@link RiskProfile}.
+     */
+    private PostingResult withdrawScreened(Account account, long amount, String description) {
+        RiskRules rules = riskRules;
+        long now = rules.isEmpty() ? 0 : System.currentTimeMillis();
+        PostingResult screened = screen(rules, account, amount, description, now);
+        if (screened != PostingResult.SUCCESS) return screened;
+        if (!account.withdraw(amount, description)) return PostingResult.INSUFFICIENT_FUNDS;
+        if (!rules.isEmpty()) account.riskProfile().withdrew(now, amount);
+        if (account.getType() == Account.AccountType.CHECKING) metrics.count(Metrics.Op.FEE);
+        return PostingResult.SUCCESS;
+    }
+
+    /** @return SUCCESS if the rules let a debit of {@code amount} post, otherwise why not. */
+    private static PostingResult screen(RiskRules rules, Account account, long amount, String description,
+                                        long now) {
+        if (rules.isEmpty()) return PostingResult.SUCCESS;
+        return switch (rules.evaluate(account, amount, description, now)) {
+            case APPROVE -> PostingResult.SUCCESS;
+            case HOLD -> PostingResult.HELD;
+            case DECLINE -> PostingResult.DECLINED;
+        };
+    }
+
+    /** Counts an operation refused before it reached an account. */
+    private PostingResult refused(Metrics.Op op, PostingResult result) {
+        metrics.record(op, result, System.nanoTime());
+        return result;
+    }
+
+    /**
+     * Journals the transactions the account gained since {@code mark} and
+     * reports them to the read models. Called under the account's stripe so
+     * journal order matches posting order.
+     * @return The journal position to wait for, or 0 if nothing was written.
+     */
+    private long journalSince(Account account, int mark) {
+        TransactionHistory history = account.getTransactionHistory();
+        changed(account, history.size() - mark);
+        if (journal == null) return 0;
+        long position = 0;
+        for (int i = mark; i < history.size(); i++) {
+            position = journal.appendPosted(account.getAccountNumber(), history, i);
+        }
+        return position;
+    }
+
+    /** Reports postings to the read models, if started; called under the account's stripe. */
+    private void changed(Account account, int rows) {
+        ReadModels views = readModels;
+        if (views != null) views.changed(account, rows);
+    }
+
+    /** The journal position just past everything appended so far, or 0 for an in-memory ledger. */
+    private long journalPosition() {
+        return journal != null ? journal.position() : 0;
+    }
+
+    /**
+     * Waits for the journal, then for followers if replicated.
+     * @return false if followers did not acknowledge the position in time; it is committed here all the same.
+     */
+    private boolean awaitDurable(long journalPosition) {
+        if (journalPosition <= 0) return true;
+        journal.awaitDurable(journalPosition);
+        ReplicationLeader leader = replication;
+        return leader == null || leader.awaitAcknowledged(journalPosition);
+    }
+
+    /**
+     * Refuses a change that cannot report {@link PostingResult#REPLICATION_BEHIND} itself.
+     * @throws IllegalStateException if followers are behind; nothing has been applied.
+     */
+    private void checkReplicated() {
+        if (replicationBehind()) {
+            throw new IllegalStateException("Replication is behind; changes are refused until followers catch up");
+        }
+    }
+
+    private void lockAll() {
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+    }
+
+    private ReentrantLock stripeFor(String accountNumber) {
+        return stripes[stripeIndex(accountNumber)];
+    }
+
+    private int stripeIndex(String accountNumber) {
+        int h = accountNumber.hashCode();
+        return (h ^ (h >>> 16)) & stripeMask;
+    }
+
+    /**
+     * Allocates a 10-digit account number no other allocation has returned.
+     * The caller's putIfAbsent still guards against numbers registered through
+     * {@link #addAccount} or generated at random by older versions.
+     */
+    String generateAccountNumber() {
+        return accountNumbers.next();
+    }
+
+    /** Journals a lease ahead of the account records that use it; their durability covers it. */
+    private void accountNumbersLeased(long end) {
+        if (journal != null) journal.appendAccountNumbersLeased(end);
+    }
+
+    /** Rebuilds accounts from journal records; runs before the ledger is shared. */
+    private class Recovery implements Journal.Listener {
+        private final long openedAt = System.currentTimeMillis(); // Keys older than the cache keeps are skipped
+
+        @Override
+        public void accountOpened(String accountNumber, String pinHash, String accountHolderName,
+                                  Account.AccountType type) {
+            if (accounts.putIfAbsent(new Account(accountNumber, pinHash, accountHolderName, type)) != null) {
+                throw new IllegalStateException("Journal opens account " + accountNumber + " twice");
+            }
+        }
+
+        @Override
+        public void posted(String accountNumber, Transaction.Type type, long amount, long timestamp,
+                           String description) {
+            Account account = accounts.get(accountNumber);
+            if (account == null) {
+                throw new IllegalStateException("Journal posts to unknown account " + accountNumber);
+            }
+            account.replay(type, amount, timestamp, description);
+        }
+
+        @Override
+        public void transferred(String fromAccountNumber, String toAccountNumber, long amount, long timestamp,
+                                String description) {
+            Account from = accounts.get(fromAccountNumber);
+            Account to = accounts.get(toAccountNumber);
+            if (from == null || to == null) {
+                throw new IllegalStateException("Journal transfers between unknown accounts "
+                        + fromAccountNumber + " and " + toAccountNumber);
+            }
+            if (!from.transferTo(to, amount, description, timestamp)) {
+                throw new IllegalStateException("Journal transfer from " + fromAccountNumber + " does not apply");
+            }
+        }
+
+        @Override
+        public void accountNumbersLeased(long end) {
+            accountNumbers.advanceTo(end);
+        }
+
+        @Override
+        public void loanOpened(String accountNumber, long loanId, long principal, int annualRateBasisPoints,
+                               int termMonths, long firstDueDay, long timestamp) {
+            Account account = accounts.get(accountNumber);
+            if (account == null) {
+                throw new IllegalStateException("Journal opens a loan for unknown account " + accountNumber);
+            }
+            account.openLoan(new Loan(loanId, accountNumber, principal, annualRateBasisPoints, termMonths,
+                    firstDueDay), timestamp);
+            loanIds.accumulateAndGet(loanId + 1, Math::max);
+        }
+
+        @Override
+        public void installmentPaid(String accountNumber, long loanId, long interest, long payment, long timestamp) {
+            Account account = accounts.get(accountNumber);
+            Loan loan = account != null ? loanById(account, loanId) : null;
+            if (loan == null || loan.interestDue() != interest || account.payInstallment(loan, timestamp) != payment) {
+                throw new IllegalStateException("Journal installment of loan " + loanId + " on "
+                        + accountNumber + " does not apply");
+            }
+        }
+
+        @Override
+        public void keyed(String accountNumber, String key, PostingResult result, long value, long timestamp) {
+            idempotency.restore(IdempotencyCache.scope(accountNumber, key), IdempotencyCache.Outcome.of(result, value),
+                    timestamp, openedAt);
+        }
+    }
+
+    /** Applies a leader's records to a running follower; called under lockAll. */
+    private final class Replicated extends Recovery {
+        @Override
+        public void accountOpened(String accountNumber, String pinHash, String accountHolderName,
+                                  Account.AccountType type) {
+            super.accountOpened(accountNumber, pinHash, accountHolderName, type);
+            ReadModels views = readModels;
+            if (views != null) views.add(accounts.get(accountNumber));
+        }
+
+        @Override
+        public void posted(String accountNumber, Transaction.Type type, long amount, long timestamp,
+                           String description) {
+            super.posted(accountNumber, type, amount, timestamp, description);
+            changed(accounts.get(accountNumber), 1);
+        }
+
+        @Override
+        public void transferred(String fromAccountNumber, String toAccountNumber, long amount, long timestamp,
+                                String description) {
+            super.transferred(fromAccountNumber, toAccountNumber, amount, timestamp, description);
+            changed(accounts.get(fromAccountNumber), 1);
+            changed(accounts.get(toAccountNumber), 1);
+        }
+
+        @Override
+        public void loanOpened(String accountNumber, long loanId, long principal, int annualRateBasisPoints,
+                               int termMonths, long firstDueDay, long timestamp) {
+            super.loanOpened(accountNumber, loanId, principal, annualRateBasisPoints, termMonths, firstDueDay,
+                    timestamp);
+            changed(accounts.get(accountNumber), 1); // The payout
+        }
+
+        @Override
+        public void installmentPaid(String accountNumber, long loanId, long interest, long payment, long timestamp) {
+            super.installmentPaid(accountNumber, loanId, interest, payment, timestamp);
+            changed(accounts.get(accountNumber), interest > 0 ? 2 : 1); // As Account#payInstallment posts them
+        }
+    }
+}
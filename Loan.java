@@ -0,0 +1,107 @@
+import java.time.LocalDate;
+
+/**
+ * A loan repaid in equal monthly installments (an annuity), with interest
+ * accrued on the outstanding principal each month.
+ * <p>
+ * The installment is fixed when the loan is opened, rounded up to the cent;
+ * each payment is that month's interest plus the rest of the installment
+ * against principal, and the last one settles whatever principal remains, so
+ * rounding never leaves a balance behind. Installment {@code k} (from 0) falls
+ * due {@code k} months after the first due day. An account may hold any
+ * number of loans; its {@link Account#getLoanAmount() loan amount} is the sum
+ * of what it owes on all of them.
+ * <p>
+ * Mutated only by {@link Account} under the account's lock stripe; the
+ * progress fields are volatile so other threads can read a loan's state.
+ */
+final class Loan {
+
+    private static final long RATE_DIVISOR = 12 * 10_000L; // Annual basis points to a monthly fraction
+
+    final long id;
+    final String accountNumber;
+    final long principal; // In cents
+    final int annualRateBasisPoints;
+    final int termMonths;
+    final long firstDueDay; // Epoch day of installment 0
+    final long installment; // In cents
+    private volatile int paidInstallments;
+    private volatile long outstanding; // Principal still owed, in cents
+
+    /**
+     * @throws IllegalArgumentException If the principal or term is not positive or the rate is negative.
+     */
+    Loan(long id, String accountNumber, long principal, int annualRateBasisPoints, int termMonths, long firstDueDay) {
+        this(id, accountNumber, principal, annualRateBasisPoints, termMonths, firstDueDay,
+                installmentFor(principal, annualRateBasisPoints, termMonths), 0, principal);
+    }
+
+    /** Restores a loan's progress, e.g. from a snapshot. */
+    Loan(long id, String accountNumber, long principal, int annualRateBasisPoints, int termMonths, long firstDueDay,
+         long installment, int paidInstallments, long outstanding) {
+        this.id = id;
+        this.accountNumber = accountNumber;
+        this.principal = principal;
+        this.annualRateBasisPoints = annualRateBasisPoints;
+        this.termMonths = termMonths;
+        this.firstDueDay = firstDueDay;
+        this.installment = installment;
+        this.paidInstallments = paidInstallments;
+        this.outstanding = outstanding;
+    }
+
+    /**
+     * The level monthly payment that repays {@code principal} with interest
+     * in {@code termMonths} installments, rounded up to the cent.
+     */
+    static long installmentFor(long principal, int annualRateBasisPoints, int termMonths) {
+        if (principal <= 0 || termMonths <= 0 || annualRateBasisPoints < 0) {
+            throw new IllegalArgumentException("Invalid loan terms: " + principal + " cents, "
+                    + annualRateBasisPoints + " bps, " + termMonths + " months");
+        }
+        if (annualRateBasisPoints == 0) return (principal + termMonths - 1) / termMonths;
+        double r = (double) annualRateBasisPoints / RATE_DIVISOR;
+        return (long) Math.ceil(principal * r / (1 - Math.pow(1 + r, -termMonths)));
+    }
+
+    int getPaidInstallments() {
+        return paidInstallments;
+    }
+
+    long getOutstanding() {
+        return outstanding;
+    }
+
+    boolean isPaidOff() {
+        return paidInstallments >= termMonths || outstanding == 0;
+    }
+
+    /** Epoch day the next unpaid installment falls due. */
+    long dueDay() {
+        return LocalDate.ofEpochDay(firstDueDay).plusMonths(paidInstallments).toEpochDay();
+    }
+
+    /** This month's interest on the outstanding principal, rounded half-up. */
+    long interestDue() {
+        return (outstanding * annualRateBasisPoints + RATE_DIVISOR / 2) / RATE_DIVISOR;
+    }
+
+    /** The next payment, interest included; the last one clears the principal. */
+    long paymentDue(long interest) {
+        boolean last = paidInstallments == termMonths - 1;
+        long towardPrincipal = last ? outstanding : Math.min(outstanding, Math.max(0, installment - interest));
+        return interest + towardPrincipal;
+    }
+
+    void recordPayment(long interest, long payment) {
+        outstanding -= payment - interest;
+        paidInstallments++;
+    }
+
+    /** A copy of the current state, e.g. for a snapshot taken while payments continue. */
+    Loan copy() {
+        return new Loan(id, accountNumber, principal, annualRateBasisPoints, termMonths, firstDueDay, installment,
+                paidInstallments, outstanding);
+    }
+}
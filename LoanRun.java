@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Daily loan run: collects every scheduled {@link Loan} installment that has
+ * fallen due.
+ * <p>
+ * Accounts holding loans are split into the same hash partitions as
+ * {@link InterestRun} and processed in parallel on a fork/join pool; each
+ * account's installments are collected under one acquisition of its lock
+ * stripe, and a partition's postings are made durable with a single wait.
+ * An installment the balance does not cover is counted as missed and tried
+ * again on every later run until it is paid. Paying an installment moves its
+ * loan's due day on, so running the same day twice collects nothing the
+ * second time and no checkpoint file is needed.
+ * <p>
+ * Usage: {@code java LoanRun [yyyy-MM-dd]} (default today), with the
+ * application stopped; it uses the same files as {@link BankApp}.
+ */
+final class LoanRun {
+
+    /** Outcome of a run. */
+    static final class Report {
+        final LocalDate day;
+        final long loans;
+        final long installmentsPaid;
+        final long amountCollected; // In cents
+        final long installmentsMissed;
+        final long loansInArrears;
+        final long elapsedNanos;
+
+        Report(LocalDate day, long loans, long installmentsPaid, long amountCollected, long installmentsMissed,
+               long loansInArrears, long elapsedNanos) {
+            this.day = day;
+            this.loans = loans;
+            this.installmentsPaid = installmentsPaid;
+            this.amountCollected = amountCollected;
+            this.installmentsMissed = installmentsMissed;
+            this.loansInArrears = loansInArrears;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /** Loans examined per minute, whether or not anything was due. */
+        double loansPerMinute() {
+            return elapsedNanos > 0 ? loans * 60e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Loan run %s: %d loans, %d installments collected %s, %d missed "
+                            + "(%d loans in arrears), %.1f s, %.0f loans/min",
+                    day, loans, installmentsPaid, Formats.zar(amountCollected), installmentsMissed,
+                    loansInArrears, elapsedNanos / 1e9, loansPerMinute());
+        }
+    }
+
+    private final Ledger ledger;
+    private final long day; // Epoch day
+    private final Account[][] partitions;
+    private final LongAdder loans = new LongAdder();
+    private final LongAdder paid = new LongAdder();
+    private final LongAdder collected = new LongAdder();
+    private final LongAdder missed = new LongAdder();
+    private final LongAdder inArrears = new LongAdder();
+
+    private LoanRun(Ledger ledger, LocalDate day, int partitionCount) {
+        this.ledger = ledger;
+        this.day = day.toEpochDay();
+        this.partitions = partition(ledger, partitionCount);
+    }
+
+    /** Collects the installments due on or before {@code day} on the common pool. */
+    static Report run(Ledger ledger, LocalDate day) {
+        return run(ledger, day, ForkJoinPool.commonPool());
+    }
+
+    static Report run(Ledger ledger, LocalDate day, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        LoanRun run = new LoanRun(ledger, day, InterestRun.DEFAULT_PARTITIONS);
+        pool.invoke(run.new Partitions(0, run.partitions.length));
+        return new Report(day, run.loans.sum(), run.paid.sum(), run.collected.sum(), run.missed.sum(),
+                run.inArrears.sum(), System.nanoTime() - start);
+    }
+
+    /** Splits the accounts that hold loans into partitions by a hash of their number. */
+    private static Account[][] partition(Ledger ledger, int count) {
+        List<List<Account>> lists = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lists.add(new ArrayList<>());
+        }
+        for (Account account : ledger.getAccounts()) {
+            if (account.getLoans().length > 0) {
+                lists.get(InterestRun.partitionOf(account.getAccountNumber(), count)).add(account);
+            }
+        }
+        Account[][] partitions = new Account[count][];
+        for (int i = 0; i < count; i++) {
+            partitions[i] = lists.get(i).toArray(new Account[0]);
+        }
+        return partitions;
+    }
+
+    private void runPartition(int index) {
+        Ledger.InstallmentObserver observer = new Ledger.InstallmentObserver() {
+            @Override
+            public void paid(Loan loan, long payment) {
+                paid.increment();
+                collected.add(payment);
+            }
+
+            @Override
+            public void missed(Loan loan) {
+                missed.increment();
+                if (loan.dueDay() < day) inArrears.increment(); // Missed on an earlier run too
+            }
+        };
+        for (Account account : partitions[index]) {
+            loans.add(account.getLoans().length);
+            ledger.collectInstallments(account, day, observer);
+        }
+        ledger.awaitJournal();
+    }
+
+    /** Halves the partition range until one partition remains. */
+    private final class Partitions extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        Partitions(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                runPartition(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Partitions(from, mid), new Partitions(mid, to));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 1) {
+            System.err.println("Usage: java LoanRun [yyyy-MM-dd]");
+            System.exit(2);
+        }
+        LocalDate day = args.length > 0 ? LocalDate.parse(args[0]) : LocalDate.now();
+        try (Ledger ledger = Ledger.open(Paths.get(System.getProperty("bank.journal", "bank.journal")),
+                Paths.get(System.getProperty("bank.snapshot", "bank.snapshot")))) {
+            Report report = run(ledger, day);
+            System.out.println(report);
+            ledger.writeSnapshot(); // So the next start does not replay the whole run
+        }
+    }
+}
@@ -0,0 +1,291 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Counts and times every ledger operation, login and UI refresh.
+ * <p>
+ * Each {@link Op} has a counter per outcome (a {@link PostingResult}, or an
+ * {@link AuthService.Outcome} for logins) and a {@link LatencyHistogram}.
+ * Recording indexes fixed arrays by ordinal and bumps striped counters, so it
+ * takes no locks and allocates nothing; it is always on. The numbers can be
+ * read over JMX ({@link #registerMBean}, one attribute per counter and
+ * percentile) or as text in the Prometheus exposition format
+ * ({@link #appendText}, served by {@link ApiServer} at {@code /metrics}).
+ * Watched {@link Projection}s add their lag and delay.
+ */
+final class Metrics {
+
+    /** What is measured. Latency covers the whole call, journal wait included. */
+    enum Op {
+        DEPOSIT,
+        WITHDRAW,
+        FEE, // Counted when a checking withdrawal charges one; not timed apart from it
+        INTEREST,
+        LOAN,
+        REPAY,
+        SCHEDULED_LOAN,
+        INSTALLMENT, // One scheduled installment collected (SUCCESS) or missed (INSUFFICIENT_FUNDS)
+        TRANSFER,
+        DUPLICATE, // Counted when a keyed operation is answered from the IdempotencyCache; timed as its own op
+        LOGIN(AuthService.Outcome.class),
+        UI_REFRESH;
+
+        final Enum<?>[] outcomes;
+
+        Op() {
+            this(PostingResult.class);
+        }
+
+        Op(Class<? extends Enum<?>> outcomes) {
+            this.outcomes = outcomes.getEnumConstants();
+        }
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final Op[] OPS = Op.values();
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] QUANTILES = { "0.5", "0.9", "0.99", "0.999" }; // The same, as labelled
+    private static final String[] STATISTICS = { "meanMicros", "p50Micros", "p90Micros", "p99Micros", "p999Micros",
+            "maxMicros" };
+
+    private final LongAdder[][] outcomes = new LongAdder[OPS.length][];
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPS.length];
+    private volatile Projection<?>[] projections = {};
+
+    Metrics() {
+        for (Op op : OPS) {
+            outcomes[op.ordinal()] = new LongAdder[op.outcomes.length];
+            for (int i = 0; i < op.outcomes.length; i++) {
+                outcomes[op.ordinal()][i] = new LongAdder();
+            }
+            latencies[op.ordinal()] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Counts one operation with its outcome and times it.
+     * @param outcome A constant of the op's outcome type.
+     * @param startNanos {@link System#nanoTime()} when the operation began.
+     */
+    void record(Op op, Enum<?> outcome, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        outcomes[op.ordinal()][outcome.ordinal()].increment();
+        latencies[op.ordinal()].record(elapsed);
+    }
+
+    /** Counts and times one successful operation. */
+    void record(Op op, long startNanos) {
+        record(op, op.outcomes[0], startNanos);
+    }
+
+    /** Counts one operation without timing it. */
+    void count(Op op) {
+        outcomes[op.ordinal()][0].increment();
+    }
+
+    long count(Op op, Enum<?> outcome) {
+        return outcomes[op.ordinal()][outcome.ordinal()].sum();
+    }
+
+    LatencyHistogram latency(Op op) {
+        return latencies[op.ordinal()];
+    }
+
+    /** Publishes the lag and delay of these projections too. */
+    synchronized void watch(Projection<?>... added) {
+        Projection<?>[] all = Arrays.copyOf(projections, projections.length + added.length);
+        System.arraycopy(added, 0, all, projections.length, added.length);
+        projections = all;
+    }
+
+    /**
+     * Appends every counter and latency summary in the Prometheus text
+     * format; outcomes that never happened are left out.
+     */
+    StringBuilder appendText(StringBuilder sb) {
+        sb.append("# HELP bank_operations_total Ledger operations by outcome.\n");
+        sb.append("# TYPE bank_operations_total counter\n");
+        for (Op op : OPS) {
+            for (Enum<?> outcome : op.outcomes) {
+                long n = count(op, outcome);
+                if (n == 0) continue;
+                sb.append("bank_operations_total{op=\"").append(op.label())
+                        .append("\",outcome=\"").append(outcome.name()).append("\"} ").append(n).append('\n');
+            }
+        }
+        sb.append("# HELP bank_operation_seconds Latency of ledger operations.\n");
+        sb.append("# TYPE bank_operation_seconds summary\n");
+        for (Op op : OPS) {
+            LatencyHistogram latency = latency(op);
+            if (latency.count() == 0) continue;
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                sb.append("bank_operation_seconds{op=\"").append(op.label())
+                        .append("\",quantile=\"").append(QUANTILES[i]).append("\"} ")
+                        .append(latency.percentile(PERCENTILES[i], TimeUnit.SECONDS)).append('\n');
+            }
+            sb.append("bank_operation_seconds_sum{op=\"").append(op.label()).append("\"} ")
+                    .append(latency.sumNanos() / 1e9).append('\n');
+            sb.append("bank_operation_seconds_count{op=\"").append(op.label()).append("\"} ")
+                    .append(latency.count()).append('\n');
+        }
+        Projection<?>[] watched = projections;
+        if (watched.length == 0) return sb;
+        sb.append("# HELP bank_projection_lag Postings not yet in a read model.\n");
+        sb.append("# TYPE bank_projection_lag gauge\n");
+        for (Projection<?> projection : watched) {
+            sb.append("bank_projection_lag{projection=\"").append(projection.name).append("\"} ")
+                    .append(projection.lag()).append('\n');
+        }
+        sb.append("# HELP bank_projection_delay_seconds Time from posting to read model.\n");
+        sb.append("# TYPE bank_projection_delay_seconds summary\n");
+        for (Projection<?> projection : watched) {
+            LatencyHistogram delay = projection.delay();
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                sb.append("bank_projection_delay_seconds{projection=\"").append(projection.name)
+                        .append("\",quantile=\"").append(QUANTILES[i]).append("\"} ")
+                        .append(delay.percentile(PERCENTILES[i], TimeUnit.SECONDS)).append('\n');
+            }
+            sb.append("bank_projection_delay_seconds_count{projection=\"").append(projection.name).append("\"} ")
+                    .append(delay.count()).append('\n');
+        }
+        return sb;
+    }
+
+    /**
+     * Publishes these metrics on the platform MBean server as
+     * {@code bank:type=Metrics,name=<name>}, replacing any registered under
+     * that name before (e.g. by an earlier ledger in the same JVM).
+     */
+    ObjectName registerMBean(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("bank:type=Metrics,name=" + ObjectName.quote(name));
+        try {
+            server.registerMBean(new MBean(), objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            server.unregisterMBean(objectName);
+            server.registerMBean(new MBean(), objectName);
+        }
+        return objectName;
+    }
+
+    /**
+     * Read-only attributes {@code <op>.<OUTCOME>} (counts),
+     * {@code <op>.<statistic>Micros} (latency) and, per watched projection,
+     * {@code projection.<name>.lag} and {@code projection.<name>.<statistic>Micros}
+     * (delay), built from {@link Op} so a new op shows up without touching
+     * this class.
+     */
+    private final class MBean implements DynamicMBean {
+
+        @Override
+        public MBeanInfo getMBeanInfo() { // Rebuilt each time: projections may be watched after registration
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Op op : OPS) {
+                for (Enum<?> outcome : op.outcomes) {
+                    attributes.add(new MBeanAttributeInfo(op.label() + "." + outcome.name(), "long",
+                            "Count of " + op.label() + " with outcome " + outcome.name(), true, false, false));
+                }
+                for (String statistic : STATISTICS) {
+                    attributes.add(new MBeanAttributeInfo(op.label() + "." + statistic, "double",
+                            "Latency of " + op.label() + " in microseconds", true, false, false));
+                }
+            }
+            for (Projection<?> projection : projections) {
+                String prefix = "projection." + projection.name + ".";
+                attributes.add(new MBeanAttributeInfo(prefix + "lag", "long",
+                        "Postings not yet in the " + projection.name + " view", true, false, false));
+                for (String statistic : STATISTICS) {
+                    attributes.add(new MBeanAttributeInfo(prefix + statistic, "double",
+                            "Delay from posting to the " + projection.name + " view in microseconds",
+                            true, false, false));
+                }
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Ledger operation counts and latencies",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            int dot = attribute.lastIndexOf('.');
+            if (dot > 0) {
+                String owner = attribute.substring(0, dot);
+                String field = attribute.substring(dot + 1);
+                for (Op op : OPS) {
+                    if (!op.label().equals(owner)) continue;
+                    for (Enum<?> outcome : op.outcomes) {
+                        if (outcome.name().equals(field)) return count(op, outcome);
+                    }
+                    Double value = statistic(latency(op), field);
+                    if (value != null) return value;
+                }
+                for (Projection<?> projection : projections) {
+                    if (!owner.equals("projection." + projection.name)) continue;
+                    if (field.equals("lag")) return projection.lag();
+                    Double value = statistic(projection.delay(), field);
+                    if (value != null) return value;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        private Double statistic(LatencyHistogram latency, String field) {
+            return switch (field) {
+                case "meanMicros" -> latency.meanNanos() / 1e3;
+                case "p50Micros" -> latency.percentile(50, TimeUnit.MICROSECONDS);
+                case "p90Micros" -> latency.percentile(90, TimeUnit.MICROSECONDS);
+                case "p99Micros" -> latency.percentile(99, TimeUnit.MICROSECONDS);
+                case "p999Micros" -> latency.percentile(99.9, TimeUnit.MICROSECONDS);
+                case "maxMicros" -> latency.maxNanos() / 1e3;
+                default -> null;
+            };
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Left out, as the interface asks
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName)); // No operations, only attributes
+        }
+
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Fixed-point money helpers. Every amount in the ledger is a primitive
+ * {@code long} count of cents (ZAR minor units), so postings are exact and
+ * never box or round on the hot path.
+ */
+final class Money {
+
+    public static final long CENTS_PER_RAND = 100;
+    private static final long BASIS_POINTS = 10_000; // 1 basis point = 0.01%
+
+    private Money() {
+    }
+
+    /**
+     * Parses a decimal amount such as "1500", "0.5" or "-12.34" into cents
+     * without allocating. Surrounding whitespace is ignored; at most two
+     * decimal places are accepted.
+     * @param text The amount as typed by the user or read from a feed.
+     * @return The amount in cents.
+     * @throws NumberFormatException if the text is not a valid amount.
+     */
+    public static long parse(CharSequence text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) start++;
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) end--;
+        return parse(text, start, end);
+    }
+
+    /**
+     * Parses {@code text[start, end)} into cents; see {@link #parse(CharSequence)}.
+     */
+    public static long parse(CharSequence text, int start, int end) {
+        if (start >= end) throw new NumberFormatException("Empty amount");
+
+        boolean negative = false;
+        char first = text.charAt(start);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            start++;
+        }
+
+        long rands = 0;
+        long cents = 0;
+        int digits = 0;
+        int fractionDigits = -1; // -1 until the decimal point is seen
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c >= '0' && c <= '9') {
+                digits++;
+                if (fractionDigits < 0) {
+                    if (rands > (Long.MAX_VALUE / CENTS_PER_RAND - 10) / 10) {
+                        throw new NumberFormatException("Amount too large: " + text.subSequence(start, end));
+                    }
+                    rands = rands * 10 + (c - '0');
+                } else if (++fractionDigits > 2) {
+                    throw new NumberFormatException("More than two decimal places: " + text.subSequence(start, end));
+                } else {
+                    cents = cents * 10 + (c - '0');
+                }
+            } else {
+                throw new NumberFormatException("Invalid amount: " + text.subSequence(start, end));
+            }
+        }
+        if (digits == 0) throw new NumberFormatException("Invalid amount: " + text.subSequence(start, end));
+        if (fractionDigits == 1) cents *= 10;
+
+        long total = rands * CENTS_PER_RAND + cents;
+        return negative ? -total : total;
+    }
+
+    /**
+     * Computes {@code basisPoints / 10000} of an amount, rounded half-up to the
+     * nearest cent. 50 basis points is the 0.5% monthly savings interest.
+     */
+    public static long percentage(long cents, int basisPoints) {
+        long whole = Math.multiplyExact(cents / BASIS_POINTS, (long) basisPoints);
+        long part = (cents % BASIS_POINTS) * basisPoints;
+        long rounded = part >= 0 ? (part + BASIS_POINTS / 2) / BASIS_POINTS : (part - BASIS_POINTS / 2) / BASIS_POINTS;
+        return Math.addExact(whole, rounded);
+    }
+
+    /**
+     * Renders cents as a plain decimal string, e.g. 123456 -> "1234.56".
+     */
+    public static String toPlainString(long cents) {
+        return Formats.appendPlain(new StringBuilder(24), cents).toString();
+    }
+}
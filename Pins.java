@@ -0,0 +1,67 @@
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted PIN hashing.
+ * <p>
+ * A PIN is stored as a credential string
+ * {@code pbkdf2-sha256$<iterations>$<salt>$<hash>} (Base64 salt and hash),
+ * never as the PIN itself. The iteration count is modest on purpose: a
+ * 4-digit PIN has only 10,000 values, so no hash cost could stop an offline
+ * search, and what protects a PIN is the attempt throttling in
+ * {@link AuthService}. The hash keeps PINs out of the journal and snapshots
+ * and makes each guess cost real work. The count is stored with each
+ * credential so it can be raised later.
+ */
+final class Pins {
+
+    private static final String SCHEME = "pbkdf2-sha256";
+    private static final int ITERATIONS = 2_000;
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+    private static final byte[] DUMMY_SALT = new byte[SALT_BYTES]; // Hashed against when a credential is malformed
+
+    private Pins() {
+    }
+
+    /** Hashes a PIN with a fresh random salt. */
+    public static String hash(String pin) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return SCHEME + '$' + ITERATIONS + '$' + ENCODER.encodeToString(salt) + '$'
+                + ENCODER.encodeToString(pbkdf2(pin, salt, ITERATIONS));
+    }
+
+    /**
+     * Checks a PIN against a stored credential. Costs one hash whatever the
+     * outcome, even for a credential that is not one of {@link #hash}'s.
+     */
+    public static boolean verify(String pin, String credential) {
+        String[] parts = credential.split("\\$");
+        if (parts.length != 4 || !parts[0].equals(SCHEME)) {
+            pbkdf2(pin, DUMMY_SALT, ITERATIONS);
+            return false;
+        }
+        byte[] expected = DECODER.decode(parts[3]);
+        byte[] actual = pbkdf2(pin, DECODER.decode(parts[2]), Integer.parseInt(parts[1]));
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private static byte[] pbkdf2(String pin, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(pin.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
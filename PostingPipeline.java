@@ -0,0 +1,332 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Deposits and withdrawals through per-shard single-writer queues, for
+ * callers that post at high rates and can take the result asynchronously.
+ * <p>
+ * The ledger's lock stripes are dealt round-robin to a power-of-two number of
+ * shards. Each shard is owned by one thread that drains a preallocated ring
+ * of command slots, laid out as parallel arrays so a batch is read
+ * sequentially. Producers claim a slot with one atomic increment, fill it
+ * and publish it; nothing is allocated per command. The shard thread takes
+ * all of its stripes once per batch (up to {@value #MAX_BATCH} commands), so
+ * its postings pay no per-posting lock handoff while transfers, loans and the
+ * other ledger paths keep working alongside under the same stripes. A
+ * batch's postings are journaled back to back and made durable with a single
+ * wait before any of their callbacks run, so a completed command is durable,
+ * as with {@link Ledger#deposit}.
+ * <p>
+ * Postings go through {@link Account#deposit} and {@link Account#withdraw}
+ * unchanged, so fees and insufficient-funds refusals are the same as on the
+ * ledger's own path; commands for one account apply in submission order of
+ * each producer. A full ring makes producers wait.
+ */
+final class PostingPipeline implements AutoCloseable {
+
+    /**
+     * Receives a command's outcome on the shard's thread; keep it short. A
+     * command for an account that does not exist completes at once, on the
+     * submitting thread, with {@link PostingResult#ACCOUNT_NOT_FOUND}.
+     */
+    interface Callback {
+        /** @param balance The account's balance right after the posting, in cents. */
+        void completed(PostingResult result, long balance);
+
+        /** The posting was applied but could not be made durable (see {@link Journal#awaitDurable}). */
+        default void failed(RuntimeException error) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, error);
+        }
+    }
+
+    static final int DEFAULT_RING_SIZE = 4096;
+    static final int MAX_BATCH = 256; // Bounds how long a shard holds its stripes
+    private static final int SPINS = 100; // Empty polls before a shard thread parks
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50); // A producer's wait on a full ring
+
+    private final Ledger ledger;
+    private final Metrics metrics;
+    private final Shard[] shards;
+    private volatile boolean closing;
+
+    /** One shard per processor, as far as the ledger has stripes for. */
+    PostingPipeline(Ledger ledger) {
+        this(ledger, Runtime.getRuntime().availableProcessors(), DEFAULT_RING_SIZE);
+    }
+
+    /**
+     * @param shards Rounded up to a power of two, at most the ledger's stripe count.
+     * @param ringSize Commands each shard can hold; rounded up to a power of two.
+     */
+    PostingPipeline(Ledger ledger, int shards, int ringSize) {
+        this.ledger = ledger;
+        this.metrics = ledger.getMetrics();
+        int count = Math.min(Integer.highestOneBit(Math.max(1, shards - 1)) << 1, ledger.stripeCount());
+        int size = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            this.shards[i] = new Shard(i, size);
+        }
+        for (Shard shard : this.shards) {
+            shard.thread.start();
+        }
+    }
+
+    void deposit(String accountNumber, long amount, String description, Callback callback) {
+        submit(false, accountNumber, amount, description, null, callback);
+    }
+
+    void withdraw(String accountNumber, long amount, String description, Callback callback) {
+        submit(true, accountNumber, amount, description, null, callback);
+    }
+
+    /**
+     * @param key Idempotency key, or null: a repeat gets the first call's
+     *            result without posting again, as with {@link Ledger#deposit(String, long, String, String)}.
+     */
+    void deposit(String accountNumber, long amount, String description, String key, Callback callback) {
+        submit(false, accountNumber, amount, description, key, callback);
+    }
+
+    /** @param key Idempotency key, or null. */
+    void withdraw(String accountNumber, long amount, String description, String key, Callback callback) {
+        submit(true, accountNumber, amount, description, key, callback);
+    }
+
+    /** Deposits and waits for the outcome, like {@link Ledger#deposit} but batched with other callers'. */
+    PostingResult deposit(String accountNumber, long amount, String description) {
+        return deposit(accountNumber, amount, description, (String) null);
+    }
+
+    /** @param key Idempotency key, or null. */
+    PostingResult deposit(String accountNumber, long amount, String description, String key) {
+        Waiter waiter = new Waiter();
+        deposit(accountNumber, amount, description, key, waiter);
+        return waiter.await();
+    }
+
+    /** Withdraws and waits for the outcome, like {@link Ledger#withdraw} but batched with other callers'. */
+    PostingResult withdraw(String accountNumber, long amount, String description) {
+        return withdraw(accountNumber, amount, description, (String) null);
+    }
+
+    /** @param key Idempotency key, or null. */
+    PostingResult withdraw(String accountNumber, long amount, String description, String key) {
+        Waiter waiter = new Waiter();
+        withdraw(accountNumber, amount, description, key, waiter);
+        return waiter.await();
+    }
+
+    /** Finishes the commands already submitted, then stops the shard threads. Stop submitting first. */
+    @Override
+    public void close() {
+        closing = true;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+        }
+        boolean interrupted = false;
+        for (Shard shard : shards) {
+            while (shard.thread.isAlive()) {
+                try {
+                    shard.thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true; // Commands in flight still get their callbacks
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void submit(boolean withdrawal, String accountNumber, long amount, String description, String key,
+                        Callback callback) {
+        if (closing) throw new IllegalStateException("Posting pipeline is closed");
+        IdempotencyCache.checkKey(key);
+        Ledger.checkText(description);
+        long start = System.nanoTime();
+        Account account = ledger.getAccount(accountNumber);
+        if (account == null) {
+            metrics.record(withdrawal ? Metrics.Op.WITHDRAW : Metrics.Op.DEPOSIT, PostingResult.ACCOUNT_NOT_FOUND,
+                    start);
+            callback.completed(PostingResult.ACCOUNT_NOT_FOUND, 0);
+            return;
+        }
+        shards[ledger.shardOf(accountNumber, shards.length)]
+                .publish(withdrawal, account, amount, description, key, callback, start);
+    }
+
+    /**
+     * A ring of command slots and the thread that drains it. Sequence
+     * {@code s} lives in slot {@code s & mask}; {@code published} holds the
+     * sequence last written to each slot, so the thread knows a slot is ready
+     * when it holds the sequence it expects next.
+     */
+    private final class Shard implements Runnable {
+        final int index;
+        final int mask;
+        final Thread thread;
+
+        // Slots, as parallel arrays
+        final boolean[] withdrawals;
+        final Account[] accounts;
+        final long[] amounts;
+        final String[] descriptions;
+        final String[] keys;
+        final Callback[] callbacks;
+        final long[] startNanos;
+        final PostingResult[] results; // Written and read by the shard thread only
+        final long[] balances;         // Likewise
+
+        final AtomicLongArray published;
+        final AtomicLong claimed = new AtomicLong(); // Next sequence a producer gets
+        volatile long consumed; // Every sequence below is done and its slot free
+        volatile boolean sleeping;
+
+        Shard(int index, int size) {
+            this.index = index;
+            this.mask = size - 1;
+            this.withdrawals = new boolean[size];
+            this.accounts = new Account[size];
+            this.amounts = new long[size];
+            this.descriptions = new String[size];
+            this.keys = new String[size];
+            this.callbacks = new Callback[size];
+            this.startNanos = new long[size];
+            this.results = new PostingResult[size];
+            this.balances = new long[size];
+            this.published = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                published.set(i, -1);
+            }
+            this.thread = new Thread(this, "posting-shard-" + index);
+            thread.setDaemon(true);
+        }
+
+        void publish(boolean withdrawal, Account account, long amount, String description, String key,
+                     Callback callback, long start) {
+            long sequence = claimed.getAndIncrement();
+            int spins = 0;
+            while (sequence - consumed > mask) { // Ring full: wait for the shard to free the slot
+                if (sleeping) LockSupport.unpark(thread);
+                if (++spins < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(this, FULL_PARK_NANOS); // The shard may be waiting on the journal for long
+                }
+            }
+            int slot = (int) sequence & mask;
+            withdrawals[slot] = withdrawal;
+            accounts[slot] = account;
+            amounts[slot] = amount;
+            descriptions[slot] = description;
+            keys[slot] = key;
+            callbacks[slot] = callback;
+            startNanos[slot] = start;
+            published.set(slot, sequence); // Volatile: orders the slot writes before it, and before the read below
+            if (sleeping) LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            long next = 0;
+            int idle = 0;
+            while (true) {
+                long end = next;
+                while (end - next < MAX_BATCH && published.get((int) end & mask) == end) {
+                    end++;
+                }
+                if (end > next) {
+                    process(next, end);
+                    next = end;
+                    consumed = end;
+                    idle = 0;
+                } else if (closing && claimed.get() == next) {
+                    return;
+                } else if (++idle < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    sleeping = true; // Then look once more, so a publish that missed the flag is not missed
+                    if (published.get((int) next & mask) != next && !closing) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    sleeping = false;
+                }
+            }
+        }
+
+        private void process(long from, long to) {
+            int shardCount = shards.length;
+            ledger.lockShard(index, shardCount);
+            try {
+                for (long s = from; s < to; s++) {
+                    int slot = (int) s & mask;
+                    Account account = accounts[slot];
+                    results[slot] = ledger.postHeld(account, withdrawals[slot], amounts[slot], descriptions[slot],
+                            keys[slot]);
+                    balances[slot] = account.getBalance();
+                }
+            } finally {
+                ledger.unlockShard(index, shardCount);
+            }
+
+            RuntimeException failure = null;
+            boolean replicated = true;
+            try {
+                replicated = ledger.awaitJournal(); // One group commit for the whole batch
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            for (long s = from; s < to; s++) {
+                int slot = (int) s & mask;
+                Callback callback = callbacks[slot];
+                PostingResult result = results[slot];
+                if (!replicated && result.isSuccess()) result = PostingResult.UNREPLICATED;
+                metrics.record(withdrawals[slot] ? Metrics.Op.WITHDRAW : Metrics.Op.DEPOSIT, result, startNanos[slot]);
+                accounts[slot] = null; // Free for collection while the slot waits for reuse
+                descriptions[slot] = null;
+                keys[slot] = null;
+                callbacks[slot] = null;
+                results[slot] = null;
+                try {
+                    if (failure == null) {
+                        callback.completed(result, balances[slot]);
+                    } else {
+                        callback.failed(failure);
+                    }
+                } catch (RuntimeException e) {
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e); // Other callbacks still run
+                }
+            }
+        }
+    }
+
+    /** Turns a callback into a blocking call for the synchronous methods. */
+    private static final class Waiter implements Callback {
+        private final Thread caller = Thread.currentThread();
+        private volatile PostingResult result;
+        private volatile RuntimeException error;
+
+        @Override
+        public void completed(PostingResult result, long balance) {
+            this.result = result;
+            LockSupport.unpark(caller);
+        }
+
+        @Override
+        public void failed(RuntimeException error) {
+            this.error = error;
+            LockSupport.unpark(caller);
+        }
+
+        PostingResult await() {
+            while (result == null && error == null) {
+                LockSupport.park(this);
+            }
+            if (error != null) throw error;
+            return result;
+        }
+    }
+}
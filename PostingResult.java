@@ -0,0 +1,22 @@
+/**
+ * Outcome of a ledger operation, so callers can tell the user why a posting
+ * was refused instead of just that it was.
+ */
+enum PostingResult {
+    SUCCESS,
+    ACCOUNT_NOT_FOUND,
+    INVALID_AMOUNT,
+    INSUFFICIENT_FUNDS,
+    LOAN_OUTSTANDING, // Only one outstanding flat loan at a time; scheduled loans do not count
+    NO_LOAN, // No flat loan to repay
+    SAME_ACCOUNT, // A transfer must move money between two different accounts
+    DECLINED, // Refused by a RiskRules rule
+    HELD, // Not posted: a RiskRules rule held it for review
+    REPLICATION_BEHIND, // Not posted: followers are behind, so changes are refused until they catch up
+    UNREPLICATED; // Posted and journaled here, but no follower acknowledged it in time; do not retry
+
+    /** Whether the posting was made, including one not yet on a follower. */
+    public boolean isSuccess() {
+        return this == SUCCESS || this == UNREPLICATED;
+    }
+}
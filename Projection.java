@@ -0,0 +1,126 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A read model kept per account by its own projector thread, folded from the
+ * account's {@link TransactionHistory}, which is the event log: postings are
+ * appended there (and journaled) by the ledger's posting path and never
+ * change afterwards.
+ * <p>
+ * The posting path only reports which account changed ({@link #changed});
+ * the account is queued once however many postings it gets before the
+ * projector reaches it, and the projector then folds every row past the
+ * view's {@link #position} in one step and publishes the new view. Readers
+ * get the latest published view from a concurrent map without touching the
+ * ledger's locks, so they scale apart from posting; in exchange a view may
+ * trail the account by the {@link #lag} still queued.
+ * <p>
+ * Views are immutable. A view is seeded from the account's current state
+ * ({@link #seed}) rather than its whole history, so starting a projection
+ * does not read histories still in the snapshot.
+ */
+abstract class Projection<V> implements AutoCloseable {
+
+    final String name;
+    private final ConcurrentHashMap<String, V> views = new ConcurrentHashMap<>();
+    private final Set<Account> pending = ConcurrentHashMap.newKeySet();
+    private final LinkedBlockingQueue<Account> queue = new LinkedBlockingQueue<>();
+    private final CopyOnWriteArrayList<Consumer<String>> subscribers = new CopyOnWriteArrayList<>();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final LatencyHistogram delay = new LatencyHistogram(); // Posting to visibility, for live postings
+    private final long startedAt = System.currentTimeMillis();
+    private final Thread projector;
+
+    Projection(String name) {
+        this.name = name;
+        this.projector = new Thread(this::run, "projector-" + name);
+        projector.setDaemon(true);
+    }
+
+    /** The view of an account as it stood before anything was projected; called under its stripe. */
+    abstract V seed(Account account);
+
+    /** Rows of the account's history already folded into the view. */
+    abstract int position(V view);
+
+    /** Folds rows {@code position(view)..to-1} into a new view. */
+    abstract V apply(V view, TransactionHistory history, int to);
+
+    void start() {
+        projector.start();
+    }
+
+    /** Seeds an account's view; the caller holds the account's stripe and no projector has seen it. */
+    void add(Account account) {
+        views.put(account.getAccountNumber(), seed(account));
+    }
+
+    /** Reports {@code rows} new postings on an account; never blocks. */
+    void changed(Account account, int rows) {
+        published.add(rows);
+        if (pending.add(account)) queue.offer(account);
+    }
+
+    /** @return The account's latest projected view, or null if there is no such account. */
+    V get(String accountNumber) {
+        return views.get(accountNumber);
+    }
+
+    /** Calls {@code subscriber} with an account number, on the projector thread, after each update of its view. */
+    void subscribe(Consumer<String> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    /** Postings reported but not yet in a view. */
+    long lag() {
+        return Math.max(0, published.sum() - applied.sum());
+    }
+
+    /** How long live postings took to show up in a view. */
+    LatencyHistogram delay() {
+        return delay;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                project(queue.take());
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    private void project(Account account) {
+        pending.remove(account); // Before reading, so a posting from here on queues it again
+        String accountNumber = account.getAccountNumber();
+        V view = views.get(accountNumber);
+        TransactionHistory history = account.getTransactionHistory();
+        int from = position(view);
+        int to = history.size();
+        if (to <= from) return;
+
+        view = apply(view, history, to);
+        views.put(accountNumber, view);
+        applied.add(to - from);
+        long now = System.currentTimeMillis();
+        for (int i = from; i < to; i++) {
+            long timestamp = history.timestampAt(i);
+            if (timestamp >= startedAt) delay.record(TimeUnit.MILLISECONDS.toNanos(now - timestamp));
+        }
+        for (Consumer<String> subscriber : subscribers) {
+            subscriber.accept(accountNumber);
+        }
+    }
+
+    @Override
+    public void close() {
+        projector.interrupt();
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * The query side of the ledger: balance, loan status and history views of
+ * every account, each materialized by its own {@link Projection} thread from
+ * the postings the ledger appends.
+ * <p>
+ * Dashboards and API reads take their numbers from here, so however many of
+ * them there are they never contend with posting for the ledger's stripes.
+ * Views trail the postings slightly; {@link Projection#subscribe} says when an
+ * account's view moved on, and each projection's lag and delay are published
+ * through {@link Metrics}. Postings themselves still return the result and
+ * balance they produced at once, from the account.
+ * <p>
+ * Started by {@link Ledger#readModels()}; the ledger reports every account it
+ * opens and every posting to the projections.
+ */
+final class ReadModels implements AutoCloseable {
+
+    /** An account's balance as of its first {@code position} postings. */
+    static final class BalanceView {
+        final int position;
+        final long balance; // In cents
+
+        BalanceView(int position, long balance) {
+            this.position = position;
+            this.balance = balance;
+        }
+    }
+
+    /** What an account owes on loans, manual and scheduled. */
+    static final class LoanView {
+        final int position;
+        final long outstanding; // In cents
+        final long lastRepaymentAt; // Epoch millis; 0 if none since the projection started
+
+        LoanView(int position, long outstanding, long lastRepaymentAt) {
+            this.position = position;
+            this.outstanding = outstanding;
+            this.lastRepaymentAt = lastRepaymentAt;
+        }
+    }
+
+    /** How much of an account's history readers should show, so lists agree with the balance view. */
+    static final class HistoryView {
+        final int size;
+        final long lastPostedAt; // Epoch millis; 0 if nothing was posted since the projection started
+
+        HistoryView(int size, long lastPostedAt) {
+            this.size = size;
+            this.lastPostedAt = lastPostedAt;
+        }
+    }
+
+    final Projection<BalanceView> balances = new Projection<>("balances") {
+        @Override
+        BalanceView seed(Account account) {
+            return new BalanceView(account.getTransactionCount(), account.getBalance());
+        }
+
+        @Override
+        int position(BalanceView view) {
+            return view.position;
+        }
+
+        @Override
+        BalanceView apply(BalanceView view, TransactionHistory history, int to) {
+            long balance = view.balance;
+            for (int i = view.position; i < to; i++) {
+                balance += history.typeAt(i).balanceChange(history.amountAt(i));
+            }
+            return new BalanceView(to, balance);
+        }
+    };
+
+    final Projection<LoanView> loans = new Projection<>("loans") {
+        @Override
+        LoanView seed(Account account) {
+            return new LoanView(account.getTransactionCount(), account.getLoanAmount(), 0);
+        }
+
+        @Override
+        int position(LoanView view) {
+            return view.position;
+        }
+
+        @Override
+        LoanView apply(LoanView view, TransactionHistory history, int to) {
+            long outstanding = view.outstanding;
+            long lastRepaymentAt = view.lastRepaymentAt;
+            for (int i = view.position; i < to; i++) {
+                switch (history.typeAt(i)) { // The loan rules of Account#replay
+                    case LOAN_TAKEN, LOAN_INTEREST -> outstanding += history.amountAt(i);
+                    case LOAN_REPAYMENT -> {
+                        outstanding = Math.max(0, outstanding - history.amountAt(i));
+                        lastRepaymentAt = history.timestampAt(i);
+                    }
+                    default -> { }
+                }
+            }
+            return new LoanView(to, outstanding, lastRepaymentAt);
+        }
+    };
+
+    final Projection<HistoryView> history = new Projection<>("history") {
+        @Override
+        HistoryView seed(Account account) {
+            return new HistoryView(account.getTransactionCount(), 0);
+        }
+
+        @Override
+        int position(HistoryView view) {
+            return view.size;
+        }
+
+        @Override
+        HistoryView apply(HistoryView view, TransactionHistory history, int to) {
+            return new HistoryView(to, history.timestampAt(to - 1));
+        }
+    };
+
+    private final Projection<?>[] all = { balances, loans, history };
+
+    Projection<?>[] projections() {
+        return all.clone();
+    }
+
+    /** Seeds the views of an account; called under its stripe, before any posting to it is reported. */
+    void add(Account account) {
+        for (Projection<?> projection : all) {
+            projection.add(account);
+        }
+    }
+
+    /** Reports {@code rows} postings appended to an account's history; called under its stripe. */
+    void changed(Account account, int rows) {
+        if (rows <= 0) return;
+        for (Projection<?> projection : all) {
+            projection.changed(account, rows);
+        }
+    }
+
+    void start() {
+        for (Projection<?> projection : all) {
+            projection.start();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Projection<?> projection : all) {
+            projection.close();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A follower: keeps a copy of a leader's ledger current by applying the
+ * journal the {@link ReplicationLeader} ships, and can serve it read-only.
+ * <p>
+ * One thread connects to the leader, says where its own journal ends, then
+ * inflates each segment, applies the whole records in it (see
+ * {@link Ledger#applyReplicated}) and acknowledges once they are durable
+ * here. A dropped connection is retried every second, resuming where the
+ * journal ends; a leader that refuses the journal as diverged stops the
+ * replica for good, since only an operator can tell which history is right.
+ * <p>
+ * Failover is manual: stop the replica and start an {@link ApiServer} on its
+ * journal and snapshot. With the leader waiting for at least one
+ * acknowledgement, every operation a client saw succeed is in that journal.
+ */
+final class Replica implements AutoCloseable {
+
+    private static final long RECONNECT_MILLIS = 1_000;
+
+    private final Ledger ledger;
+    private final InetSocketAddress leader;
+    private final Thread thread;
+    private final Inflater inflater = new Inflater(); // Replica thread only
+    private volatile SocketChannel channel;
+    private volatile long appliedPosition; // Journal position applied and durable here
+    private volatile boolean closed;
+
+    /** Turns {@code ledger} into a follower and starts following. */
+    Replica(Ledger ledger, InetSocketAddress leader) {
+        ledger.followLeader();
+        this.ledger = ledger;
+        this.leader = leader;
+        this.appliedPosition = ledger.journalEnd();
+        this.thread = new Thread(this::run, "replica");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** How far this replica has applied and stored the leader's journal. */
+    long appliedPosition() {
+        return appliedPosition;
+    }
+
+    /** Whether the replica is still following; false once closed or refused by the leader. */
+    boolean isFollowing() {
+        return !closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        SocketChannel current = channel;
+        if (current != null) {
+            try {
+                current.close(); // Unblocks a read
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                try {
+                    follow();
+                } catch (IOException e) {
+                    if (closed) break;
+                    System.err.println("Lost the leader at " + leader + ": " + e.getMessage() + "; reconnecting");
+                    try {
+                        Thread.sleep(RECONNECT_MILLIS);
+                    } catch (InterruptedException ie) {
+                        break;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Replication stopped: " + e.getMessage());
+        } finally {
+            closed = true;
+            inflater.end();
+        }
+    }
+
+    /** One connection to the leader, until it drops. */
+    private void follow() throws IOException {
+        try (SocketChannel channel = SocketChannel.open(leader)) {
+            this.channel = channel;
+            if (closed) return;
+            channel.socket().setTcpNoDelay(true);
+            long end = ledger.journalEnd();
+            ByteBuffer hello = ByteBuffer.allocate(ReplicationLeader.HELLO_BYTES)
+                    .putInt(ReplicationLeader.MAGIC).putLong(end).putInt(ledger.journalChecksumBefore(end));
+            writeFully(channel, hello.flip());
+
+            ByteBuffer header = ByteBuffer.allocate(ReplicationLeader.SEGMENT_HEADER_BYTES);
+            ByteBuffer ack = ByteBuffer.allocate(8);
+            byte[] compressed = new byte[ReplicationLeader.MAX_SEGMENT_BYTES];
+            ByteBuffer records = ByteBuffer.allocate(2 * ReplicationLeader.MAX_SEGMENT_BYTES); // Shipped, not yet applied
+            while (!closed) {
+                readFully(channel, header.clear());
+                long start = header.getLong(0);
+                int rawBytes = header.getInt(8);
+                int compressedBytes = header.getInt(12);
+                if (rawBytes < 0) {
+                    throw new IllegalStateException("Leader refused the journal: it diverges at " + start);
+                }
+                if (start != end + records.position() || rawBytes > ReplicationLeader.MAX_SEGMENT_BYTES
+                        || compressedBytes < 0) {
+                    throw new IOException("Unexpected segment of " + rawBytes + " bytes at " + start);
+                }
+                if (compressed.length < compressedBytes) compressed = new byte[compressedBytes];
+                readFully(channel, ByteBuffer.wrap(compressed, 0, compressedBytes));
+                if (records.remaining() < rawBytes) records = grow(records, rawBytes);
+                inflate(compressed, compressedBytes, records, rawBytes);
+
+                end = ledger.applyReplicated(records.flip());
+                records.compact();
+                ledger.awaitJournal();
+                appliedPosition = end;
+                writeFully(channel, ack.clear().putLong(end).flip());
+            }
+        } finally {
+            this.channel = null;
+        }
+    }
+
+    private void inflate(byte[] compressed, int length, ByteBuffer records, int rawBytes) throws IOException {
+        inflater.reset();
+        inflater.setInput(compressed, 0, length);
+        int offset = records.arrayOffset() + records.position();
+        int inflated = 0;
+        try {
+            while (inflated < rawBytes) {
+                int n = inflater.inflate(records.array(), offset + inflated, rawBytes - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) break;
+                inflated += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt segment: " + e.getMessage());
+        }
+        if (inflated != rawBytes) throw new IOException("Segment inflated to " + inflated + " of " + rawBytes + " bytes");
+        records.position(records.position() + rawBytes);
+    }
+
+    /** Room for {@code more} bytes after an incomplete record carried over from earlier segments. */
+    private static ByteBuffer grow(ByteBuffer records, int more) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(records.capacity() * 2, records.position() + more));
+        return grown.put(records.flip());
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            if (channel.read(dst) < 0) throw new EOFException("Leader closed the connection");
+        }
+        dst.flip();
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+    /**
+     * Follows the leader replicating on {@code args[0]} (see the ApiServer's
+     * {@code bank.replication.port}) and serves the copy read-only over HTTP
+     * on {@code args[1]}, by default {@value ApiServer#DEFAULT_PORT} + 1.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: java Replica <leader replication port> [http port]");
+            System.exit(2);
+        }
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        int leaderPort = Integer.parseInt(args[0]);
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : ApiServer.DEFAULT_PORT + 1;
+        Ledger ledger = Ledger.open(Paths.get(System.getProperty("bank.journal", "replica.journal")),
+                Paths.get(System.getProperty("bank.snapshot", "replica.snapshot")));
+        ledger.scheduleSnapshots(5, TimeUnit.MINUTES);
+        Replica replica = new Replica(ledger, new InetSocketAddress(loopback, leaderPort));
+        ApiServer api = new ApiServer(ledger, new AuthService(ledger), new InetSocketAddress(loopback, port), true);
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            api.close();
+            replica.close();
+            try {
+                ledger.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the journal: " + e.getMessage());
+            }
+            stopped.countDown();
+        }, "replica-shutdown"));
+        api.start();
+        System.out.println("Following the leader on port " + leaderPort + "; serving reads on http://"
+                + api.getAddress().getHostString() + ":" + api.getAddress().getPort());
+        stopped.await();
+    }
+}
@@ -0,0 +1,386 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+
+/**
+ * The leader's side of journal replication: ships the journal's durable bytes
+ * to every connected {@link Replica} and tracks how far each has stored them.
+ * <p>
+ * One thread runs a {@link Selector} over the listening socket and all
+ * follower connections. A follower opens with {@code [int magic][long
+ * position][int checksum]}: where its journal ends and the
+ * {@link Journal#checksumBefore checksum} of the bytes before that, so a
+ * follower whose journal has diverged (an old leader that wrote records no
+ * one acknowledged) is refused rather than corrupted. From there the leader
+ * sends segments {@code [long start][int rawBytes][int compressedBytes][data]}
+ * of up to {@value #MAX_SEGMENT_BYTES} journal bytes, deflated, as fast as
+ * the socket takes them; a refusal is a segment with {@code rawBytes} -1.
+ * The follower answers each segment with {@code [long position]} once it is
+ * durable on its side.
+ * <p>
+ * {@link #awaitAcknowledged} is what makes failover safe: the ledger calls
+ * it after its own journal wait, and it returns once the configured number
+ * of followers have acknowledged the position. Segments can end inside a
+ * record; followers apply and acknowledge whole records only.
+ * <p>
+ * That wait is bounded. When followers are down or too slow it times out and
+ * the leader counts as {@link #isBehind behind}: the operation that waited
+ * is already applied and journaled here, so it reports that rather than
+ * failing, and the ledger refuses further changes before applying them
+ * until followers hold the position that timed out. Falling behind and
+ * catching up are both logged.
+ */
+final class ReplicationLeader implements AutoCloseable {
+
+    static final int MAGIC = 0x424E4B52; // "BNKR"
+    static final int HELLO_BYTES = 4 + 8 + 4;
+    static final int SEGMENT_HEADER_BYTES = 8 + 4 + 4;
+    static final int MAX_SEGMENT_BYTES = 256 * 1024;
+    static final long DEFAULT_TIMEOUT_MILLIS = 5_000;
+    private static final long POLL_MILLIS = 10; // How soon durable bytes are noticed when no writer is waiting
+
+    private final Journal journal;
+    private final int requiredAcks;
+    private final long timeoutMillis;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private final List<Follower> followers = new ArrayList<>(); // Selector thread only
+    private final ByteBuffer raw = ByteBuffer.allocate(MAX_SEGMENT_BYTES); // Likewise
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED); // Likewise
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition acknowledged = lock.newCondition();
+    private long replicatedPosition; // Held durably by requiredAcks followers; guarded by lock
+    private volatile long behindAt = -1; // Position a wait timed out at, until it is replicated; set under lock
+    private volatile boolean closed;
+
+    /** A connected follower, as the selector thread sees it. */
+    private static final class Follower {
+        final SocketChannel channel;
+        final SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(HELLO_BYTES); // Hello, then 8-byte acknowledgements
+        boolean greeted;
+        long shipped; // Journal position sent up to
+        long acked;   // Journal position the follower holds durably
+        ByteBuffer out; // A segment not yet fully written, or null
+
+        Follower(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+    }
+
+    /**
+     * @param port Listened on at the loopback address; 0 picks a free one (see {@link #port()}).
+     * @param requiredAcks Followers that must hold a record before an operation returns; 0 for none.
+     * @param timeoutMillis How long an operation waits for them before it fails.
+     */
+    ReplicationLeader(Journal journal, int port, int requiredAcks, long timeoutMillis) throws IOException {
+        if (requiredAcks < 0) throw new IllegalArgumentException("Negative acknowledgement count");
+        if (timeoutMillis <= 0) throw new IllegalArgumentException("Replication timeout must be positive");
+        this.journal = journal;
+        this.requiredAcks = requiredAcks;
+        this.timeoutMillis = timeoutMillis;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        this.thread = new Thread(this::run, "replication-leader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /** Followers currently connected and past their hello. */
+    int followerCount() {
+        lock.lock();
+        try {
+            return followers.size(); // Approximate: read off the selector thread
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The journal position {@code requiredAcks} followers hold durably. */
+    long replicatedPosition() {
+        lock.lock();
+        try {
+            return replicatedPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether a wait timed out and followers have not caught up with it
+     * since; changes should be refused before they are applied while so.
+     */
+    boolean isBehind() {
+        return behindAt >= 0;
+    }
+
+    /**
+     * Blocks until enough followers hold the journal up to {@code position},
+     * for at most the timeout. Without followers it waits for one to connect
+     * and catch up.
+     * @return false if they do not: the wait timed out, the leader was
+     *         already behind, or replication stopped. What was journaled up
+     *         to the position stays committed here either way.
+     */
+    boolean awaitAcknowledged(long position) {
+        if (requiredAcks == 0) return true;
+        boolean interrupted = false;
+        lock.lock();
+        try {
+            if (replicatedPosition >= position) return true;
+            selector.wakeup(); // Ship the new bytes now rather than at the next poll
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (replicatedPosition < position) {
+                if (closed || behindAt >= 0) return false;
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0) {
+                    behindAt = position;
+                    System.err.println("Replication behind: " + requiredAcks + " follower(s) did not acknowledge "
+                            + "position " + position + " within " + timeoutMillis + " ms; changes are refused until "
+                            + "they catch up");
+                    return false;
+                }
+                try {
+                    acknowledged.awaitNanos(nanos);
+                } catch (InterruptedException e) {
+                    interrupted = true; // The posting is applied and journaled; finish waiting
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            acknowledged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- Selector thread ---
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select(POLL_MILLIS);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Follower follower = (Follower) key.attachment();
+                        try {
+                            if (key.isReadable()) read(follower);
+                            if (key.isValid() && key.isWritable()) write(follower);
+                        } catch (IOException e) {
+                            drop(follower, e.getMessage());
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+                ship();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Replication stopped: " + e);
+        } finally {
+            closed = true;
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                if (key.attachment() instanceof Follower) drop((Follower) key.attachment(), null);
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the replication socket: " + e.getMessage());
+            }
+            deflater.end();
+            lock.lock();
+            try {
+                acknowledged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Follower(channel, key));
+    }
+
+    private void read(Follower follower) throws IOException {
+        if (follower.channel.read(follower.in) < 0) {
+            drop(follower, null);
+            return;
+        }
+        ByteBuffer in = follower.in.flip();
+        if (!follower.greeted) {
+            if (in.remaining() < HELLO_BYTES) {
+                in.compact();
+                return;
+            }
+            greet(follower, in.getInt(), in.getLong(), in.getInt());
+            if (!follower.key.isValid()) return;
+            follower.in = ByteBuffer.allocate(64 * 8); // Acknowledgements from now on
+            return;
+        }
+        long acked = follower.acked;
+        while (in.remaining() >= 8) {
+            acked = Math.max(acked, in.getLong());
+        }
+        in.compact();
+        if (acked > follower.acked) {
+            follower.acked = acked;
+            acknowledge();
+        }
+    }
+
+    /** Checks a follower's hello and starts shipping from where its journal ends. */
+    private void greet(Follower follower, int magic, long position, int checksum) throws IOException {
+        if (magic != MAGIC) {
+            drop(follower, "not a replica");
+            return;
+        }
+        if (position > journal.durablePosition() || journal.checksumBefore(position) != checksum) {
+            ByteBuffer refusal = ByteBuffer.allocate(SEGMENT_HEADER_BYTES).putLong(position).putInt(-1).putInt(0);
+            follower.channel.write(refusal.flip()); // Best effort; the follower also sees the close
+            drop(follower, "journal diverges from the leader's at " + position);
+            return;
+        }
+        follower.greeted = true;
+        follower.shipped = position;
+        follower.acked = position;
+        lock.lock();
+        try {
+            followers.add(follower);
+        } finally {
+            lock.unlock();
+        }
+        acknowledge();
+    }
+
+    /** Sends the next segment to every follower that has taken the last one and is behind. */
+    private void ship() throws IOException {
+        long durable = journal.durablePosition();
+        for (Follower follower : followers.toArray(new Follower[0])) {
+            if (follower.out != null || follower.shipped >= durable) continue;
+            raw.clear();
+            int rawBytes = journal.read(raw, follower.shipped);
+            if (rawBytes == 0) continue;
+            deflater.reset();
+            deflater.setInput(raw.array(), 0, rawBytes);
+            deflater.finish();
+            byte[] segment = new byte[SEGMENT_HEADER_BYTES + rawBytes + rawBytes / 100 + 64];
+            int length = SEGMENT_HEADER_BYTES;
+            while (!deflater.finished()) {
+                if (length == segment.length) segment = Arrays.copyOf(segment, segment.length * 2);
+                length += deflater.deflate(segment, length, segment.length - length);
+            }
+            ByteBuffer.wrap(segment).putLong(follower.shipped).putInt(rawBytes).putInt(length - SEGMENT_HEADER_BYTES);
+            follower.out = ByteBuffer.wrap(segment, 0, length);
+            follower.shipped += rawBytes;
+            try {
+                write(follower);
+            } catch (IOException e) {
+                drop(follower, e.getMessage());
+            }
+        }
+    }
+
+    private void write(Follower follower) throws IOException {
+        if (follower.out == null) return;
+        follower.channel.write(follower.out);
+        if (follower.out.hasRemaining()) {
+            follower.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+            follower.out = null;
+            follower.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /** Moves the replicated position to what the {@code requiredAcks}-th furthest follower holds. */
+    private void acknowledge() {
+        if (requiredAcks == 0 || followers.size() < requiredAcks) return;
+        long[] acked = new long[followers.size()];
+        for (int i = 0; i < acked.length; i++) {
+            acked[i] = followers.get(i).acked;
+        }
+        Arrays.sort(acked);
+        long position = acked[acked.length - requiredAcks];
+        lock.lock();
+        try {
+            if (position > replicatedPosition) {
+                replicatedPosition = position;
+                if (behindAt >= 0 && position >= behindAt) {
+                    behindAt = -1;
+                    System.err.println("Replication caught up at position " + position);
+                }
+                acknowledged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Closes a follower's connection; what it acknowledged stays counted. */
+    private void drop(Follower follower, String reason) {
+        if (reason != null) System.err.println("Replica dropped: " + reason);
+        follower.key.cancel();
+        try {
+            follower.channel.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        lock.lock();
+        try {
+            followers.remove(follower);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
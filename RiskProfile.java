@@ -0,0 +1,79 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the fraud rules know about one account's recent activity: withdrawals
+ * in the last minute, the amount withdrawn in the last day, and logins from
+ * devices the account had not used before.
+ * <p>
+ * Kept in {@link SlidingWindow}s and a short array of device fingerprints, a
+ * few hundred bytes per account, created when the account first withdraws or
+ * logs in. Guarded by the account's lock stripe, like the account itself.
+ * Held in memory only: after a restart the windows start empty.
+ */
+final class RiskProfile {
+
+    private static final int KNOWN_DEVICES = 8; // Most recently used are kept
+
+    private final SlidingWindow withdrawalsPerMinute = new SlidingWindow(12, TimeUnit.SECONDS.toMillis(5));
+    private final SlidingWindow amountPerDay = new SlidingWindow(24, TimeUnit.HOURS.toMillis(1));
+    private final SlidingWindow newDeviceLoginsPerDay = new SlidingWindow(24, TimeUnit.HOURS.toMillis(1));
+    private final long[] devices = new long[KNOWN_DEVICES]; // Fingerprints, most recent first; 0 = empty
+    private long lastNewDeviceAt; // Epoch millis; 0 if never
+
+    /** A non-zero hash of a device name, such as an API client's device id. */
+    static long fingerprint(String device) {
+        long hash = 0xcbf29ce484222325L; // 64-bit FNV-1a
+        for (int i = 0; i < device.length(); i++) {
+            hash = (hash ^ device.charAt(i)) * 0x100000001b3L;
+        }
+        return hash != 0 ? hash : 1;
+    }
+
+    /** Withdrawals in the minute before {@code now}. */
+    long withdrawalsLastMinute(long now) {
+        return withdrawalsPerMinute.sum(now);
+    }
+
+    /** Cents withdrawn in the day before {@code now}. */
+    long amountLastDay(long now) {
+        return amountPerDay.sum(now);
+    }
+
+    /** Logins from a new device in the day before {@code now}. */
+    long newDeviceLoginsLastDay(long now) {
+        return newDeviceLoginsPerDay.sum(now);
+    }
+
+    /** When the account last logged in from a new device, in epoch millis; 0 if never. */
+    long lastNewDeviceAt() {
+        return lastNewDeviceAt;
+    }
+
+    void withdrew(long now, long amount) {
+        withdrawalsPerMinute.add(now, 1);
+        amountPerDay.add(now, amount);
+    }
+
+    /**
+     * Notes a successful login. The first device an account uses is not new.
+     * @param fingerprint A hash identifying the device; never 0.
+     * @return true if the device was not among those recently used.
+     */
+    boolean loggedIn(long now, long fingerprint) {
+        int found = KNOWN_DEVICES - 1; // Not found: the least recent one drops out
+        for (int i = 0; i < KNOWN_DEVICES; i++) {
+            if (devices[i] == fingerprint) {
+                found = i;
+                break;
+            }
+        }
+        boolean isNew = devices[found] != fingerprint && devices[0] != 0;
+        System.arraycopy(devices, 0, devices, 1, found);
+        devices[0] = fingerprint;
+        if (isNew) {
+            newDeviceLoginsPerDay.add(now, 1);
+            lastNewDeviceAt = now;
+        }
+        return isNew;
+    }
+}
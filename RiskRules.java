@@ -0,0 +1,154 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fraud and velocity checks run on every withdrawal (and the debit side of
+ * every transfer) before it posts, against the account's {@link RiskProfile}.
+ * <p>
+ * Each {@link Rule} approves, holds or declines; the strictest answer wins.
+ * A declined posting is refused outright. A held one is not posted either,
+ * but is kept in a short log ({@link #holds()}) for someone to review and
+ * post by hand if it was genuine. Rules run under the account's lock stripe
+ * and read only the profile's primitive windows, so a check costs a few
+ * array reads and no allocation; a held posting allocates its log entry.
+ * <p>
+ * Install with {@link Ledger#setRiskRules}; a ledger starts with {@link #NONE},
+ * which skips the checks and the profile bookkeeping entirely.
+ */
+final class RiskRules {
+
+    /** From least to most strict. */
+    enum Decision { APPROVE, HOLD, DECLINE }
+
+    /** One check. Called under the account's stripe; must not block. */
+    interface Rule {
+        /**
+         * @param amount The amount about to be debited, in cents.
+         * @param now Epoch millis.
+         */
+        Decision evaluate(Account account, RiskProfile profile, long amount, long now);
+    }
+
+    /** A posting a rule held back. */
+    static final class Hold {
+        final String accountNumber;
+        final long amount; // In cents
+        final String description;
+        final long heldAt; // Epoch millis
+        final String rule;
+
+        Hold(String accountNumber, long amount, String description, long heldAt, String rule) {
+            this.accountNumber = accountNumber;
+            this.amount = amount;
+            this.description = description;
+            this.heldAt = heldAt;
+            this.rule = rule;
+        }
+    }
+
+    static final RiskRules NONE = new RiskRules(new String[0], new Rule[0]);
+
+    private static final int MAX_HOLDS = 1024; // Held postings kept for review; the oldest drop out
+
+    private final String[] names;
+    private final Rule[] rules;
+    private final Hold[] holds = new Hold[MAX_HOLDS]; // Ring, guarded by itself
+    private long holdCount;
+
+    private RiskRules(String[] names, Rule[] rules) {
+        this.names = names;
+        this.rules = rules;
+    }
+
+    /**
+     * The bank's standard limits: at most 10 withdrawals a minute and R20 000
+     * a day; withdrawals over R5 000 within a day of a login from a new
+     * device, and any withdrawal after three new devices in a day, are held.
+     */
+    static RiskRules defaults() {
+        return NONE
+                .with("withdrawals-per-minute", maxWithdrawalsPerMinute(10))
+                .with("amount-per-day", maxAmountPerDay(2_000_000))
+                .with("new-device", holdAfterNewDevice(500_000, TimeUnit.DAYS.toMillis(1)))
+                .with("new-devices-per-day", holdAfterNewDevices(3));
+    }
+
+    /**
+     * These rules plus one more; the holds log is not carried over.
+     * @param name Shown on the holds the rule causes.
+     */
+    RiskRules with(String name, Rule rule) {
+        String[] moreNames = Arrays.copyOf(names, names.length + 1);
+        Rule[] moreRules = Arrays.copyOf(rules, rules.length + 1);
+        moreNames[names.length] = name;
+        moreRules[rules.length] = rule;
+        return new RiskRules(moreNames, moreRules);
+    }
+
+    /** Declines a withdrawal that would make more than {@code limit} in the last minute. */
+    static Rule maxWithdrawalsPerMinute(int limit) {
+        return (account, profile, amount, now) ->
+                profile.withdrawalsLastMinute(now) >= limit ? Decision.DECLINE : Decision.APPROVE;
+    }
+
+    /** Declines a withdrawal that would take more than {@code limit} cents out in the last day. */
+    static Rule maxAmountPerDay(long limit) {
+        return (account, profile, amount, now) ->
+                profile.amountLastDay(now) + amount > limit ? Decision.DECLINE : Decision.APPROVE;
+    }
+
+    /** Holds a withdrawal over {@code threshold} cents made within {@code withinMillis} of a new-device login. */
+    static Rule holdAfterNewDevice(long threshold, long withinMillis) {
+        return (account, profile, amount, now) -> amount > threshold && profile.lastNewDeviceAt() != 0
+                && now - profile.lastNewDeviceAt() < withinMillis ? Decision.HOLD : Decision.APPROVE;
+    }
+
+    /** Holds every withdrawal once the account has logged in from {@code limit} new devices in a day. */
+    static Rule holdAfterNewDevices(int limit) {
+        return (account, profile, amount, now) ->
+                profile.newDeviceLoginsLastDay(now) >= limit ? Decision.HOLD : Decision.APPROVE;
+    }
+
+    boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    /**
+     * Runs the rules on a debit; a hold is logged. Called under the account's stripe.
+     * @return The strictest decision of any rule.
+     */
+    Decision evaluate(Account account, long amount, String description, long now) {
+        RiskProfile profile = account.riskProfile();
+        Decision decision = Decision.APPROVE;
+        int decidedBy = -1;
+        for (int i = 0; i < rules.length; i++) {
+            Decision d = rules[i].evaluate(account, profile, amount, now);
+            if (d.compareTo(decision) > 0) {
+                decision = d;
+                decidedBy = i;
+                if (d == Decision.DECLINE) break;
+            }
+        }
+        if (decision == Decision.HOLD) {
+            synchronized (holds) {
+                holds[(int) (holdCount++ % MAX_HOLDS)] =
+                        new Hold(account.getAccountNumber(), amount, description, now, names[decidedBy]);
+            }
+        }
+        return decision;
+    }
+
+    /** The held postings still in the log, oldest first. */
+    List<Hold> holds() {
+        synchronized (holds) {
+            int size = (int) Math.min(holdCount, MAX_HOLDS);
+            List<Hold> list = new ArrayList<>(size);
+            for (long i = holdCount - size; i < holdCount; i++) {
+                list.add(holds[(int) (i % MAX_HOLDS)]);
+            }
+            return list;
+        }
+    }
+}
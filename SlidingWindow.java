@@ -0,0 +1,50 @@
+/**
+ * A running total over the last {@code buckets * bucketMillis} milliseconds,
+ * e.g. withdrawals in the last minute as 12 five-second buckets.
+ * <p>
+ * The window is a ring of primitive buckets; adding or summing first clears
+ * the buckets that have slid out since the last call, so both cost at most
+ * one pass over the ring and never allocate. The window moves in whole
+ * buckets, so a total can include up to one bucket's worth of time beyond
+ * the window. Not thread-safe: the ledger touches an account's windows only
+ * under its lock stripe.
+ */
+final class SlidingWindow {
+
+    private final long[] buckets;
+    private final long bucketMillis;
+    private long head = Long.MIN_VALUE; // Bucket number (time / bucketMillis) of the newest bucket
+    private long total;
+
+    SlidingWindow(int buckets, long bucketMillis) {
+        this.buckets = new long[buckets];
+        this.bucketMillis = bucketMillis;
+    }
+
+    /** Adds {@code value} at time {@code now} (epoch millis). */
+    void add(long now, long value) {
+        long bucket = advance(now);
+        buckets[(int) Math.floorMod(bucket, (long) buckets.length)] += value;
+        total += value;
+    }
+
+    /** The total over the window ending at {@code now}. */
+    long sum(long now) {
+        advance(now);
+        return total;
+    }
+
+    /** Slides the window so its newest bucket covers {@code now}; an earlier time stays in the current bucket. */
+    private long advance(long now) {
+        long bucket = now / bucketMillis;
+        if (bucket <= head) return head;
+        long expired = head == Long.MIN_VALUE ? buckets.length : Math.min(bucket - head, buckets.length);
+        for (long b = bucket - expired + 1; b <= bucket; b++) {
+            int i = (int) Math.floorMod(b, (long) buckets.length);
+            total -= buckets[i];
+            buckets[i] = 0;
+        }
+        head = bucket;
+        return bucket;
+    }
+}
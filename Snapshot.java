@@ -0,0 +1,388 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Point-in-time image of the ledger, so a restart only replays the journal
+ * written after it.
+ * <p>
+ * Layout: a fixed header, then one contiguous block per account holding its
+ * history in {@link TransactionHistory#encode columnar form} (the history
+ * region), then the table: the description dictionary, the accounts and the
+ * scheduled loans still owing, then the remembered idempotency keys. The
+ * header holds the journal position the image is consistent with, the
+ * account-number sequence to resume from, and the offset, length and checksum
+ * of the table. On {@link #load} the table is memory-mapped and turned into
+ * accounts directly; each account only keeps a {@link History} pointer
+ * (offset, length, count) into the history region and reads it the first time
+ * its history is needed, so cold start costs one pass over the table
+ * regardless of how many transactions exist.
+ */
+final class Snapshot implements AutoCloseable {
+
+    private static final int MAGIC = 0x424E4B53; // "BNKS"
+    private static final int VERSION = 7; // 1: row-wise histories, 2: no transfer links, 3: no account sequence,
+                                          // 4: no loans, 5: no idempotency keys, 6: keys without values; ignored
+    private static final int HEADER_BYTES = 48;
+    private static final Account.AccountType[] ACCOUNT_TYPES = Account.AccountType.values();
+    private static final PostingResult[] RESULTS = PostingResult.values();
+
+    private final FileChannel channel; // Kept open for lazy history reads
+    private final long journalPosition;
+    private final long accountSequence; // AccountNumbers position the accounts were issued below
+    private final String[] dictionary; // Description ids used by the history blocks
+    private final int[] remap;         // Those ids mapped to this process's Descriptions
+    private final boolean sameIds;     // Whether remap is the identity, so blocks can be copied as-is
+
+    private Snapshot(FileChannel channel, long journalPosition, long accountSequence, String[] dictionary) {
+        this.channel = channel;
+        this.journalPosition = journalPosition;
+        this.accountSequence = accountSequence;
+        this.dictionary = dictionary;
+        this.remap = new int[dictionary.length];
+        boolean same = true;
+        for (int id = 0; id < dictionary.length; id++) {
+            remap[id] = Descriptions.intern(dictionary[id]);
+            same &= remap[id] == id;
+        }
+        this.sameIds = same;
+    }
+
+    /** Journal position this snapshot is consistent with; replay resumes here. */
+    public long getJournalPosition() {
+        return journalPosition;
+    }
+
+    /** Account-number sequence position at the time of the snapshot; see {@link AccountNumbers}. */
+    public long getAccountSequence() {
+        return accountSequence;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * An account's transaction history still sitting in a snapshot file.
+     */
+    static final class History {
+        private final Snapshot snapshot;
+        private final long offset;
+        private final int bytes;
+        private final int count;
+
+        private History(Snapshot snapshot, long offset, int bytes, int count) {
+            this.snapshot = snapshot;
+            this.offset = offset;
+            this.bytes = bytes;
+            this.count = count;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /** Reads the history block straight into columns. */
+        public TransactionHistory load() {
+            ByteBuffer buf = ByteBuffer.allocate(bytes);
+            try {
+                readFully(snapshot.channel, buf, offset);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read history from snapshot", e);
+            }
+            return TransactionHistory.decode(buf.flip(), count, snapshot.dictionary, snapshot.remap);
+        }
+    }
+
+    // --- Loading ---
+
+    /**
+     * Maps a snapshot file and rebuilds its accounts.
+     * @return The open snapshot (backing the accounts' lazy histories), or null if
+     *         the file is missing or fails validation, in which case the caller
+     *         should replay the journal from the start.
+     */
+    public static Snapshot load(Path file, List<Account> accountsOut, List<Loan> loansOut, IdempotencyCache keysOut)
+            throws IOException {
+        if (!Files.exists(file)) return null;
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            if (channel.size() < HEADER_BYTES) return closeAndSkip(channel);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) return closeAndSkip(channel);
+            long journalPosition = header.getLong();
+            int accountCount = header.getInt();
+            int tableCrc = header.getInt();
+            long tableOffset = header.getLong();
+            long tableBytes = header.getLong();
+            long accountSequence = header.getLong();
+            if (tableOffset + tableBytes != channel.size() || tableBytes > Integer.MAX_VALUE) {
+                return closeAndSkip(channel);
+            }
+
+            MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, tableOffset, tableBytes);
+            CRC32C crc = new CRC32C();
+            crc.update(table.duplicate());
+            if ((int) crc.getValue() != tableCrc) return closeAndSkip(channel);
+
+            String[] dictionary = new String[table.getInt()];
+            for (int id = 0; id < dictionary.length; id++) {
+                dictionary[id] = getString(table);
+            }
+            Snapshot snapshot = new Snapshot(channel, journalPosition, accountSequence, dictionary);
+            for (int i = 0; i < accountCount; i++) {
+                String number = getString(table);
+                String pinHash = getString(table);
+                String name = getString(table);
+                Account.AccountType type = ACCOUNT_TYPES[table.get()];
+                long balance = table.getLong();
+                long loanAmount = table.getLong();
+                long historyOffset = table.getLong();
+                int historyBytes = table.getInt();
+                int historyCount = table.getInt();
+                History history = new History(snapshot, historyOffset, historyBytes, historyCount);
+                accountsOut.add(new Account(number, pinHash, name, type, balance, loanAmount, history));
+            }
+            int loanCount = table.getInt();
+            for (int i = 0; i < loanCount; i++) {
+                String number = getString(table);
+                loansOut.add(new Loan(table.getLong(), number, table.getLong(), table.getInt(), table.getInt(),
+                        table.getLong(), table.getLong(), table.getInt(), table.getLong()));
+            }
+            int keyCount = table.getInt();
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < keyCount; i++) {
+                String key = getString(table);
+                PostingResult result = RESULTS[table.get()];
+                long value = table.getLong();
+                keysOut.restore(key, IdempotencyCache.Outcome.of(result, value), table.getLong(), now);
+            }
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static Snapshot closeAndSkip(FileChannel channel) throws IOException {
+        channel.close();
+        return null;
+    }
+
+    // --- Writing ---
+
+    /**
+     * State of one account captured while the ledger was paused.
+     */
+    static final class Entry {
+        final Account account;
+        final long balance;
+        final long loanAmount;
+        final int historyCount;
+        History history;  // Set if the history is still unread in a snapshot with the same ids: copied raw
+        ByteBuffer encoded; // Otherwise the first historyCount postings, encoded
+
+        Entry(Account account, long balance, long loanAmount, int historyCount) {
+            this.account = account;
+            this.balance = balance;
+            this.loanAmount = loanAmount;
+            this.historyCount = historyCount;
+        }
+    }
+
+    /**
+     * Fills in an entry's {@code history} or {@code encoded} just before it is
+     * written, so only one account's encoded history is held at a time.
+     */
+    interface HistoryReader {
+        void read(Entry entry);
+    }
+
+    /**
+     * Whether this block can be copied byte for byte into a new snapshot, whose
+     * dictionary is this process's {@link Descriptions}.
+     */
+    static boolean canCopy(History history) {
+        return history.snapshot.sameIds;
+    }
+
+    /**
+     * Writes a new snapshot to a temporary file and atomically moves it into place.
+     * @param entries The captured accounts.
+     * @param loans Copies of the scheduled loans still owing, captured with the entries.
+     * @param keys The idempotency keys remembered, captured with the entries.
+     * @param reader Supplies each entry's history as it is written.
+     * @param journalPosition Journal position the entries are consistent with.
+     * @param accountSequence Account-number sequence position to resume from.
+     * @param historiesOut Receives each entry's history pointer into the new file, in entry order.
+     * @return The new snapshot, open for lazy history reads.
+     */
+    public static Snapshot write(Path file, List<Entry> entries, List<Loan> loans, IdempotencyCache.Remembered keys,
+                                 HistoryReader reader, long journalPosition, long accountSequence,
+                                 List<History> historiesOut)
+            throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long[] offsets = new long[entries.size()];
+        int[] lengths = new int[entries.size()];
+        String[] dictionary;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = HEADER_BYTES;
+
+            // History region: one contiguous block per account
+            for (int i = 0; i < entries.size(); i++) {
+                Entry e = entries.get(i);
+                reader.read(e);
+                offsets[i] = position;
+                if (e.history != null) {
+                    FileChannel from = e.history.snapshot.channel;
+                    long copied = 0;
+                    while (copied < e.history.bytes) {
+                        copied += from.transferTo(e.history.offset + copied, e.history.bytes - copied,
+                                out.position(position + copied));
+                    }
+                    lengths[i] = e.history.bytes;
+                } else {
+                    lengths[i] = e.encoded.remaining();
+                    writeFully(out, e.encoded, position);
+                    e.encoded = null;
+                }
+                position += lengths[i];
+            }
+
+            // Table: dictionary (taken last, so it covers every id the blocks use), accounts, loans, then keys
+            long tableOffset = position;
+            CRC32C crc = new CRC32C();
+            ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+            dictionary = Descriptions.toArray();
+            buf.putInt(dictionary.length);
+            for (String description : dictionary) {
+                byte[] bytes = description.getBytes(StandardCharsets.UTF_8);
+                if (buf.remaining() < 2 + bytes.length) {
+                    position += flushTable(out, buf, position, crc);
+                }
+                putString(buf, bytes);
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                Entry e = entries.get(i);
+                byte[] number = e.account.getAccountNumber().getBytes(StandardCharsets.UTF_8);
+                byte[] pin = e.account.getPinHash().getBytes(StandardCharsets.UTF_8);
+                byte[] name = e.account.getAccountHolderName().getBytes(StandardCharsets.UTF_8);
+                int recordBytes = 6 + number.length + pin.length + name.length + 1 + 8 + 8 + 8 + 4 + 4;
+                if (buf.remaining() < recordBytes) {
+                    position += flushTable(out, buf, position, crc);
+                }
+                putString(buf, number);
+                putString(buf, pin);
+                putString(buf, name);
+                buf.put((byte) e.account.getType().ordinal());
+                buf.putLong(e.balance);
+                buf.putLong(e.loanAmount);
+                buf.putLong(offsets[i]);
+                buf.putInt(lengths[i]);
+                buf.putInt(e.historyCount);
+            }
+            if (buf.remaining() < 4) {
+                position += flushTable(out, buf, position, crc);
+            }
+            buf.putInt(loans.size());
+            for (Loan loan : loans) {
+                byte[] number = loan.accountNumber.getBytes(StandardCharsets.UTF_8);
+                if (buf.remaining() < 2 + number.length + 8 + 8 + 4 + 4 + 8 + 8 + 4 + 8) {
+                    position += flushTable(out, buf, position, crc);
+                }
+                putString(buf, number);
+                buf.putLong(loan.id);
+                buf.putLong(loan.principal);
+                buf.putInt(loan.annualRateBasisPoints);
+                buf.putInt(loan.termMonths);
+                buf.putLong(loan.firstDueDay);
+                buf.putLong(loan.installment);
+                buf.putInt(loan.getPaidInstallments());
+                buf.putLong(loan.getOutstanding());
+            }
+            if (buf.remaining() < 4) {
+                position += flushTable(out, buf, position, crc);
+            }
+            buf.putInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] key = keys.keys[i].getBytes(StandardCharsets.UTF_8);
+                if (buf.remaining() < 2 + key.length + 1 + 8 + 8) {
+                    position += flushTable(out, buf, position, crc);
+                }
+                putString(buf, key);
+                buf.put((byte) keys.outcomes[i].result.ordinal());
+                buf.putLong(keys.outcomes[i].value);
+                buf.putLong(keys.times[i]);
+            }
+            position += flushTable(out, buf, position, crc);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(journalPosition).putInt(entries.size())
+                    .putInt((int) crc.getValue()).putLong(tableOffset).putLong(position - tableOffset)
+                    .putLong(accountSequence);
+            writeFully(out, header.flip(), 0);
+            out.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Snapshot snapshot = new Snapshot(FileChannel.open(file, StandardOpenOption.READ), journalPosition, accountSequence,
+                dictionary);
+        for (int i = 0; i < entries.size(); i++) {
+            historiesOut.add(new History(snapshot, offsets[i], lengths[i], entries.get(i).historyCount));
+        }
+        return snapshot;
+    }
+
+    private static int flushTable(FileChannel out, ByteBuffer buf, long position, CRC32C crc) throws IOException {
+        buf.flip();
+        crc.update(buf.duplicate());
+        int n = buf.remaining();
+        writeFully(out, buf, position);
+        buf.clear();
+        return n;
+    }
+
+    // --- I/O helpers ---
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0) throw new IOException("Unexpected end of snapshot");
+            position += n;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /** Ledger.checkText keeps names and descriptions short enough; this only stops a silent wrap. */
+    private static void putString(ByteBuffer buf, byte[] bytes) {
+        if (bytes.length > 0xFFFF) throw new IllegalArgumentException("String of " + bytes.length + " bytes");
+        buf.putShort((short) bytes.length);
+        buf.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buf) {
+        int length = Short.toUnsignedInt(buf.getShort());
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
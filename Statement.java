@@ -0,0 +1,262 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Locale;
+
+/**
+ * Exports a date range of an account's history as a statement, either CSV or
+ * a paginated plain-text statement.
+ * <p>
+ * The export streams: each row is rendered into one reused builder, encoded
+ * into a direct buffer and written to the channel whenever the buffer fills,
+ * so a statement of any length costs a few kilobytes of memory and no row is
+ * ever held as an object. The range is found by binary search in the
+ * history's time index and the opening balance comes from its nearest balance
+ * checkpoint (see {@link TransactionHistory#balanceAsOf}), so the postings
+ * before the range are never read; each row's balance adds its own posting to
+ * the previous one.
+ */
+final class Statement {
+
+    enum Format { CSV, TEXT }
+
+    static final int PAGE_ROWS = 50; // Rows per page of a TEXT statement
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    /** What an export covered; the balances are exact whatever the format. */
+    static final class Summary {
+        final int rows;
+        final long openingBalance;
+        final long closingBalance;
+        final long credits;
+        final long debits;
+
+        Summary(int rows, long openingBalance, long closingBalance, long credits, long debits) {
+            this.rows = rows;
+            this.openingBalance = openingBalance;
+            this.closingBalance = closingBalance;
+            this.credits = credits;
+            this.debits = debits;
+        }
+
+        @Override
+        public String toString() {
+            return rows + " transactions, opening " + Formats.zar(openingBalance)
+                    + ", closing " + Formats.zar(closingBalance);
+        }
+    }
+
+    private Statement() {
+    }
+
+    /**
+     * Writes the statement for {@code [fromMillis, toMillis)} to a channel.
+     * The channel is not closed.
+     * @param history The account's history, e.g. from {@link Ledger#getTransactionHistory};
+     *                postings made while the export runs are left out.
+     */
+    static Summary export(Account account, TransactionHistory history, long fromMillis, long toMillis,
+                          Format format, WritableByteChannel out) throws IOException {
+        int size = history.size(); // Rows below this are stable while others keep posting
+        int first = Math.min(history.firstIndexAtOrAfter(fromMillis), size);
+        int end = Math.max(first, Math.min(history.firstIndexAtOrAfter(toMillis), size));
+        long opening = history.balanceBefore(first);
+
+        Sink sink = new Sink(out);
+        StringBuilder sb = new StringBuilder(256);
+        long balance = opening;
+        long credits = 0;
+        long debits = 0;
+        int rows = 0;
+        if (format == Format.CSV) {
+            sink.write(sb.append("date,type,amount,balance,description,counterpart\n"));
+            csvBalanceRow(sb, fromMillis, "OPENING_BALANCE", balance);
+            sink.write(sb);
+        } else {
+            textHeader(sb, account, fromMillis, toMillis, balance);
+            sink.write(sb);
+        }
+
+        for (int i = first; i < end; i++) {
+            long timestamp = history.timestampAt(i);
+            Transaction.Type type = history.typeAt(i);
+            long amount = history.amountAt(i);
+            long change = type.balanceChange(amount);
+            balance += change;
+            if (change >= 0) credits += change; else debits -= change;
+
+            if (format == Format.CSV) {
+                csvRow(sb, timestamp, type.name(), amount, balance, history.descriptionAt(i), history.counterpartAt(i));
+            } else {
+                if (rows % PAGE_ROWS == 0) {
+                    sb.append("\n--- Page ").append(rows / PAGE_ROWS + 1).append(" --- Balance brought forward: ");
+                    Formats.appendZar(sb, balance - change).append('\n');
+                }
+                Formats.appendTransaction(sb, timestamp, type, amount, history.descriptionAt(i));
+                if (type.isTransfer()) {
+                    sb.append(type == Transaction.Type.TRANSFER_OUT ? " to " : " from ").append(history.counterpartAt(i));
+                }
+                Formats.appendZar(sb.append("  Balance: "), balance).append('\n');
+            }
+            sink.write(sb);
+            rows++;
+        }
+
+        if (format == Format.CSV) {
+            csvBalanceRow(sb, toMillis - 1, "CLOSING_BALANCE", balance);
+        } else {
+            Formats.appendZar(sb.append("\nClosing balance: "), balance).append('\n');
+            Formats.appendZar(sb.append("Money in: "), credits);
+            Formats.appendZar(sb.append("   Money out: "), debits);
+            sb.append("   Transactions: ").append(rows).append('\n');
+        }
+        sink.write(sb);
+        sink.flush();
+        return new Summary(rows, opening, balance, credits, debits);
+    }
+
+    /**
+     * Writes the statement for whole days {@code from..to} (inclusive, system
+     * zone) to a file, replacing it.
+     * @return null if there is no such account.
+     */
+    static Summary export(Ledger ledger, String accountNumber, LocalDate from, LocalDate to, Format format,
+                          Path file) throws IOException {
+        Account account = ledger.getAccount(accountNumber);
+        if (account == null) return null;
+        TransactionHistory history = ledger.getTransactionHistory(accountNumber);
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            return export(account, history, startOf(from), startOf(to.plusDays(1)), format, out);
+        }
+    }
+
+    static long startOf(LocalDate day) {
+        return day.atStartOfDay(ZONE).toInstant().toEpochMilli();
+    }
+
+    private static void csvRow(StringBuilder sb, long timestamp, String type, long amount, long balance,
+                               String description, String counterpart) {
+        Formats.appendTimestamp(sb, timestamp).append(',').append(type).append(',');
+        Formats.appendPlain(sb, amount).append(',');
+        Formats.appendPlain(sb, balance).append(',');
+        quote(sb, description);
+        sb.append(',');
+        if (counterpart != null) sb.append(counterpart);
+        sb.append('\n');
+    }
+
+    private static void csvBalanceRow(StringBuilder sb, long timestamp, String label, long balance) {
+        Formats.appendTimestamp(sb, timestamp).append(',').append(label).append(",,");
+        Formats.appendPlain(sb, balance).append(",,\n");
+    }
+
+    /** Appends a CSV field, quoted only if it has to be. */
+    private static void quote(StringBuilder sb, String field) {
+        boolean plain = true;
+        for (int i = 0; i < field.length() && plain; i++) {
+            char c = field.charAt(i);
+            plain = c != ',' && c != '"' && c != '\n' && c != '\r';
+        }
+        if (plain) {
+            sb.append(field);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') sb.append('"');
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    private static void textHeader(StringBuilder sb, Account account, long fromMillis, long toMillis, long opening) {
+        sb.append("Money Flow Bank - Account Statement\n");
+        sb.append("Account: ").append(account.getAccountNumber())
+                .append(" (").append(account.getType()).append(")  ")
+                .append(account.getAccountHolderName()).append('\n');
+        Formats.appendTimestamp(sb.append("Period: "), fromMillis);
+        Formats.appendTimestamp(sb.append(" to "), toMillis - 1).append('\n');
+        Formats.appendZar(sb.append("Opening balance: "), opening).append('\n');
+    }
+
+    /**
+     * Encodes text as UTF-8 into a direct buffer and hands it to the channel
+     * when full, so the bytes are written without another copy.
+     */
+    private static final class Sink {
+        private final WritableByteChannel out;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+        Sink(WritableByteChannel out) {
+            this.out = out;
+        }
+
+        /** Writes and empties the builder. */
+        void write(StringBuilder sb) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(sb);
+            while (true) {
+                CoderResult result = encoder.encode(chars, buf, false);
+                if (result.isOverflow()) {
+                    drain();
+                } else if (result.isUnderflow()) {
+                    break;
+                } else {
+                    throw new CharacterCodingException();
+                }
+            }
+            sb.setLength(0);
+        }
+
+        void flush() throws IOException {
+            drain();
+        }
+
+        private void drain() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            buf.clear();
+        }
+    }
+
+    /**
+     * Usage: {@code java Statement accountNumber yyyy-MM-dd yyyy-MM-dd [csv|text] [file]}
+     * (both days inclusive; the file defaults to {@code <account>-<from>-<to>.csv} or {@code .txt}).
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || args.length > 5) {
+            System.err.println("Usage: java Statement accountNumber yyyy-MM-dd yyyy-MM-dd [csv|text] [file]");
+            System.exit(2);
+        }
+        LocalDate from = LocalDate.parse(args[1]);
+        LocalDate to = LocalDate.parse(args[2]);
+        Format format = args.length > 3 ? Format.valueOf(args[3].toUpperCase(Locale.ROOT)) : Format.CSV;
+        Path file = Paths.get(args.length > 4 ? args[4]
+                : args[0] + "-" + from + "-" + to + (format == Format.CSV ? ".csv" : ".txt"));
+        try (Ledger ledger = Ledger.openReadOnly(Paths.get(System.getProperty("bank.journal", "bank.journal")),
+                Paths.get(System.getProperty("bank.snapshot", "bank.snapshot")))) {
+            Summary summary = export(ledger, args[0], from, to, format, file);
+            if (summary == null) {
+                System.err.println("No account " + args[0]);
+                System.exit(1);
+            }
+            System.out.println(file + ": " + summary);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Represents a single financial transaction.
+ * <p>
+ * Histories are stored column-wise in {@link TransactionHistory}; a
+ * Transaction is only built when one posting is needed as an object, e.g. for display.
+ */
+class Transaction {
+    public enum Type {
+        DEPOSIT, WITHDRAWAL, INTEREST, LOAN_TAKEN, LOAN_REPAYMENT, FEE,
+        TRANSFER_OUT, TRANSFER_IN, // Always posted in linked pairs; see TransactionHistory#counterpartAt
+        LOAN_INTEREST; // Interest accrued on a scheduled loan: raises the loan amount, not the balance
+
+        /** Whether postings of this type are one leg of a transfer. */
+        public boolean isTransfer() {
+            return this == TRANSFER_OUT || this == TRANSFER_IN;
+        }
+
+        /** What a posting of this type and amount does to the balance: +amount for credits, -amount for debits. */
+        public long balanceChange(long amount) {
+            return switch (this) {
+                case DEPOSIT, INTEREST, LOAN_TAKEN, TRANSFER_IN -> amount;
+                case WITHDRAWAL, FEE, LOAN_REPAYMENT, TRANSFER_OUT -> -amount;
+                case LOAN_INTEREST -> 0;
+            };
+        }
+    }
+    private final Type type;
+    private final long amount; // In cents
+    private final long timestamp; // Epoch milliseconds
+    private final String description;
+
+    public Transaction(Type type, long amount, long timestamp, String description) {
+        this.type = type;
+        this.amount = amount;
+        this.timestamp = timestamp;
+        this.description = description;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public String toString() {
+        return Formats.appendTransaction(new StringBuilder(64), timestamp, type, amount, description).toString();
+    }
+}
@@ -0,0 +1,466 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Columnar, append-only transaction history of one account.
+ * <p>
+ * Each posting is stored across primitive columns (epoch-millis timestamp,
+ * amount in cents, type ordinal, description id from {@link Descriptions})
+ * instead of as a {@link Transaction} object, about 21 bytes per posting.
+ * Columns are split into fixed chunks so a long history never copies more
+ * than one chunk when it grows; the first chunk starts small and doubles so
+ * accounts with a few postings stay cheap.
+ * <p>
+ * There is a single writer at a time (the ledger holds the account's stripe);
+ * readers need no lock. {@link #append} fills the columns before publishing
+ * the new size through a volatile write, so every index below {@link #size()}
+ * is fully visible. Use the {@code ...At} accessors or {@link #forEach} to read
+ * without allocating; {@link #get} builds a {@link Transaction} for display.
+ * <p>
+ * The two legs of a transfer are linked: each records the other account and
+ * the index of the matching posting in that account's history.
+ * <p>
+ * Timestamps never decrease, so the history is its own time index: a posting
+ * stamped before its predecessor (the clock stepped back) takes the
+ * predecessor's time, and {@link #firstIndexAtOrAfter} is a binary search.
+ * Every {@value #CHECKPOINT_INTERVAL}th posting also records the running
+ * balance before it, so {@link #balanceBefore} and {@link #balanceAsOf} add
+ * up at most that many postings instead of the whole history. INTEREST
+ * postings are indexed as well, so {@link #lastInterestIndexOf} looks at
+ * those alone.
+ */
+final class TransactionHistory {
+
+    /** Receives postings from {@link #forEach} without any per-row allocation. */
+    interface Visitor {
+        void visit(int index, long timestamp, Transaction.Type type, long amount, int descriptionId);
+    }
+
+    static final int CHUNK_SHIFT = 12;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT; // 4096 postings
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int FIRST_CHUNK_SIZE = 8;
+    static final int BYTES_PER_POSTING = Long.BYTES + Long.BYTES + 1 + Integer.BYTES;
+    private static final Transaction.Type[] TYPES = Transaction.Type.values();
+    private static final int CHECKPOINT_SHIFT = 6;
+    static final int CHECKPOINT_INTERVAL = 1 << CHECKPOINT_SHIFT; // 64 postings
+
+    private long[][] timestamps = new long[1][];
+    private long[][] amounts = new long[1][];
+    private byte[][] types = new byte[1][];
+    private int[][] descriptionIds = new int[1][];
+    private String[][] overflow; // Descriptions that did not fit the dictionary; rarely allocated
+    private String[][] counterparts; // Transfer legs: the other account; allocated with the first transfer
+    private int[][] counterpartIndexes; // Transfer legs: the matching posting's index in the other account
+    private long[] checkpoints = new long[1]; // Entry k: balance before posting k * CHECKPOINT_INTERVAL
+    private int[] interestIndexes; // INTEREST postings, oldest first; writer only, allocated with the first
+    private int interestCount; // Writer only
+    private long balance; // Writer only: the balance after every posting so far
+    private long lastTimestamp = Long.MIN_VALUE; // Writer only
+    private volatile int size;
+
+    public TransactionHistory() {
+        this(FIRST_CHUNK_SIZE);
+    }
+
+    /**
+     * @param expected Expected number of postings, to size the first chunk.
+     */
+    public TransactionHistory(int expected) {
+        int first = Math.min(CHUNK_SIZE, Math.max(FIRST_CHUNK_SIZE, expected));
+        timestamps[0] = new long[first];
+        amounts[0] = new long[first];
+        types[0] = new byte[first];
+        descriptionIds[0] = new int[first];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // --- Writing (single writer) ---
+
+    public void append(Transaction.Type type, long amount, long timestamp, String description) {
+        int id = Descriptions.intern(description);
+        int index = appendRow(type, amount, timestamp, id);
+        if (id == Descriptions.NONE) {
+            setOverflow(index, description);
+        }
+        size = index + 1; // Publish
+    }
+
+    /**
+     * Appends one leg of a transfer, linked to the other leg.
+     * @param counterpart The other account's number.
+     * @param counterpartIndex Index of the other leg in that account's history.
+     */
+    public void appendLinked(Transaction.Type type, long amount, long timestamp, String description,
+                             String counterpart, int counterpartIndex) {
+        int id = Descriptions.intern(description);
+        int index = appendRow(type, amount, timestamp, id);
+        if (id == Descriptions.NONE) {
+            setOverflow(index, description);
+        }
+        setLink(index, counterpart, counterpartIndex);
+        size = index + 1; // Publish
+    }
+
+    private int appendRow(Transaction.Type type, long amount, long timestamp, int descriptionId) {
+        int index = size;
+        int chunk = index >>> CHUNK_SHIFT;
+        int offset = index & CHUNK_MASK;
+        ensureCapacity(chunk, offset);
+        checkpoint(index);
+        if (type == Transaction.Type.INTEREST) indexInterest(index);
+        balance += type.balanceChange(amount);
+        lastTimestamp = Math.max(timestamp, lastTimestamp);
+        timestamps[chunk][offset] = lastTimestamp;
+        amounts[chunk][offset] = amount;
+        types[chunk][offset] = (byte) type.ordinal();
+        descriptionIds[chunk][offset] = descriptionId;
+        return index;
+    }
+
+    private void ensureCapacity(int chunk, int offset) {
+        if (chunk == timestamps.length) {
+            int chunks = chunk * 2;
+            timestamps = Arrays.copyOf(timestamps, chunks);
+            amounts = Arrays.copyOf(amounts, chunks);
+            types = Arrays.copyOf(types, chunks);
+            descriptionIds = Arrays.copyOf(descriptionIds, chunks);
+            if (overflow != null) overflow = Arrays.copyOf(overflow, chunks);
+            if (counterparts != null) {
+                counterparts = Arrays.copyOf(counterparts, chunks);
+                counterpartIndexes = Arrays.copyOf(counterpartIndexes, chunks);
+            }
+        }
+        if (timestamps[chunk] == null) {
+            timestamps[chunk] = new long[CHUNK_SIZE];
+            amounts[chunk] = new long[CHUNK_SIZE];
+            types[chunk] = new byte[CHUNK_SIZE];
+            descriptionIds[chunk] = new int[CHUNK_SIZE];
+        } else if (offset == timestamps[chunk].length) { // Only the first chunk grows
+            int length = Math.min(CHUNK_SIZE, offset * 2);
+            timestamps[chunk] = Arrays.copyOf(timestamps[chunk], length);
+            amounts[chunk] = Arrays.copyOf(amounts[chunk], length);
+            types[chunk] = Arrays.copyOf(types[chunk], length);
+            descriptionIds[chunk] = Arrays.copyOf(descriptionIds[chunk], length);
+        }
+    }
+
+    /** Records the balance before {@code index} if it starts a checkpoint interval. */
+    private void checkpoint(int index) {
+        if ((index & (CHECKPOINT_INTERVAL - 1)) != 0) return;
+        int k = index >>> CHECKPOINT_SHIFT;
+        if (k == checkpoints.length) {
+            checkpoints = Arrays.copyOf(checkpoints, k * 2); // Published with the size; old copies stay valid
+        }
+        checkpoints[k] = balance;
+    }
+
+    private void setOverflow(int index, String description) {
+        int chunk = index >>> CHUNK_SHIFT;
+        if (overflow == null) overflow = new String[timestamps.length][];
+        if (overflow[chunk] == null) overflow[chunk] = new String[CHUNK_SIZE];
+        overflow[chunk][index & CHUNK_MASK] = description;
+    }
+
+    private void setLink(int index, String counterpart, int counterpartIndex) {
+        int chunk = index >>> CHUNK_SHIFT;
+        if (counterparts == null) {
+            counterparts = new String[timestamps.length][];
+            counterpartIndexes = new int[timestamps.length][];
+        }
+        if (counterparts[chunk] == null) {
+            counterparts[chunk] = new String[CHUNK_SIZE];
+            counterpartIndexes[chunk] = new int[CHUNK_SIZE];
+        }
+        counterparts[chunk][index & CHUNK_MASK] = counterpart;
+        counterpartIndexes[chunk][index & CHUNK_MASK] = counterpartIndex;
+    }
+
+    // --- Reading (lock-free for index < size()) ---
+
+    public long timestampAt(int index) {
+        checkIndex(index);
+        return timestamps[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public long amountAt(int index) {
+        checkIndex(index);
+        return amounts[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public Transaction.Type typeAt(int index) {
+        checkIndex(index);
+        return TYPES[types[index >>> CHUNK_SHIFT][index & CHUNK_MASK]];
+    }
+
+    /** Dictionary id of the description, or {@link Descriptions#NONE} if stored inline. */
+    public int descriptionIdAt(int index) {
+        checkIndex(index);
+        return descriptionIds[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public String descriptionAt(int index) {
+        int id = descriptionIdAt(index);
+        return id != Descriptions.NONE ? Descriptions.get(id) : overflow[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /** The other account of a transfer leg, or null if the posting is not a transfer. */
+    public String counterpartAt(int index) {
+        return typeAt(index).isTransfer() ? counterparts[index >>> CHUNK_SHIFT][index & CHUNK_MASK] : null;
+    }
+
+    /** Index of the other leg in {@link #counterpartAt}'s history, or -1 if the posting is not a transfer. */
+    public int counterpartIndexAt(int index) {
+        return typeAt(index).isTransfer() ? counterpartIndexes[index >>> CHUNK_SHIFT][index & CHUNK_MASK] : -1;
+    }
+
+    /** Materializes one posting, e.g. for display. */
+    public Transaction get(int index) {
+        return new Transaction(typeAt(index), amountAt(index), timestampAt(index), descriptionAt(index));
+    }
+
+    /**
+     * Finds the latest INTEREST posting with {@code description} stamped at
+     * or after {@code since}. Only the interest postings are looked at, the
+     * newest first, so the cost does not grow with the other postings. For
+     * the writer, e.g. under the account's stripe.
+     * @return Its index, or -1 if there is none in that window.
+     */
+    int lastInterestIndexOf(String description, long since) {
+        for (int k = interestCount - 1; k >= 0; k--) {
+            int i = interestIndexes[k];
+            if (timestampAt(i) < since) break;
+            if (descriptionAt(i).equals(description)) return i;
+        }
+        return -1;
+    }
+
+    private void indexInterest(int index) {
+        if (interestIndexes == null) {
+            interestIndexes = new int[4];
+        } else if (interestCount == interestIndexes.length) {
+            interestIndexes = Arrays.copyOf(interestIndexes, interestCount * 2);
+        }
+        interestIndexes[interestCount++] = index;
+    }
+
+    // --- Time index ---
+
+    /**
+     * Binary search for the first posting stamped at or after a time.
+     * @return Its index, or {@link #size()} if every posting is earlier.
+     */
+    public int firstIndexAtOrAfter(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid >>> CHUNK_SHIFT][mid & CHUNK_MASK] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The balance after postings {@code [0, index)}: the nearest checkpoint
+     * plus fewer than {@value #CHECKPOINT_INTERVAL} postings.
+     * @param index 0 to {@link #size()}.
+     */
+    public long balanceBefore(int index) {
+        int n = size; // Read before the checkpoints, which are published with it
+        if (index < 0 || index > n) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + n);
+        }
+        if (index == 0) return 0;
+        int base = (index - 1) & -CHECKPOINT_INTERVAL; // A posting that exists, so its checkpoint does too
+        long result = checkpoints[base >>> CHECKPOINT_SHIFT];
+        for (int i = base; i < index; i++) {
+            result += TYPES[types[i >>> CHUNK_SHIFT][i & CHUNK_MASK]]
+                    .balanceChange(amounts[i >>> CHUNK_SHIFT][i & CHUNK_MASK]);
+        }
+        return result;
+    }
+
+    /** The balance after every posting stamped before {@code timestamp}; O(log n). */
+    public long balanceAsOf(long timestamp) {
+        return balanceBefore(firstIndexAtOrAfter(timestamp));
+    }
+
+    /** Visits postings {@code [from, to)} in order, chunk by chunk. */
+    public void forEach(int from, int to, Visitor visitor) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("[" + from + ", " + to + ") of " + size);
+        }
+        int i = from;
+        while (i < to) {
+            int chunk = i >>> CHUNK_SHIFT;
+            long[] ts = timestamps[chunk];
+            long[] am = amounts[chunk];
+            byte[] ty = types[chunk];
+            int[] ds = descriptionIds[chunk];
+            int end = Math.min(to, (chunk + 1) << CHUNK_SHIFT);
+            for (int offset = i & CHUNK_MASK; i < end; i++, offset++) {
+                visitor.visit(i, ts[offset], TYPES[ty[offset]], am[offset], ds[offset]);
+            }
+        }
+    }
+
+    public void forEach(Visitor visitor) {
+        forEach(0, size, visitor);
+    }
+
+    // --- Bulk encoding (snapshots) ---
+
+    /**
+     * Encodes the first {@code count} postings column by column: timestamps,
+     * amounts, types and description ids, followed by the text of any
+     * description stored inline (length-prefixed UTF-8, in row order), then
+     * the link of each transfer leg (counterpart account as length-prefixed
+     * UTF-8 and the counterpart index, in row order).
+     */
+    ByteBuffer encode(int count) {
+        byte[][] inline = null;
+        byte[][] links = null;
+        int extraBytes = 0;
+        for (int i = 0; i < count; i++) {
+            if (descriptionIdAt(i) == Descriptions.NONE) {
+                if (inline == null) inline = new byte[count][];
+                inline[i] = descriptionAt(i).getBytes(StandardCharsets.UTF_8);
+                extraBytes += 2 + inline[i].length;
+            }
+            if (typeAt(i).isTransfer()) {
+                if (links == null) links = new byte[count][];
+                links[i] = counterpartAt(i).getBytes(StandardCharsets.UTF_8);
+                extraBytes += 2 + links[i].length + Integer.BYTES;
+            }
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(BYTES_PER_POSTING * count + extraBytes);
+        for (int chunk = 0, n = count; n > 0; chunk++, n -= CHUNK_SIZE) {
+            int length = Math.min(n, CHUNK_SIZE);
+            buf.asLongBuffer().put(timestamps[chunk], 0, length);
+            buf.position(buf.position() + length * Long.BYTES);
+        }
+        for (int chunk = 0, n = count; n > 0; chunk++, n -= CHUNK_SIZE) {
+            int length = Math.min(n, CHUNK_SIZE);
+            buf.asLongBuffer().put(amounts[chunk], 0, length);
+            buf.position(buf.position() + length * Long.BYTES);
+        }
+        for (int chunk = 0, n = count; n > 0; chunk++, n -= CHUNK_SIZE) {
+            buf.put(types[chunk], 0, Math.min(n, CHUNK_SIZE));
+        }
+        for (int chunk = 0, n = count; n > 0; chunk++, n -= CHUNK_SIZE) {
+            int length = Math.min(n, CHUNK_SIZE);
+            buf.asIntBuffer().put(descriptionIds[chunk], 0, length);
+            buf.position(buf.position() + length * Integer.BYTES);
+        }
+        if (inline != null) {
+            for (byte[] text : inline) {
+                if (text == null) continue;
+                buf.putShort((short) text.length);
+                buf.put(text);
+            }
+        }
+        if (links != null) {
+            for (int i = 0; i < count; i++) {
+                if (links[i] == null) continue;
+                buf.putShort((short) links[i].length);
+                buf.put(links[i]);
+                buf.putInt(counterpartIndexAt(i));
+            }
+        }
+        return buf.flip();
+    }
+
+    /**
+     * Rebuilds a history from {@link #encode} output, translating description
+     * ids from the encoder's dictionary into this process's {@link Descriptions}.
+     * @param dictionary The encoder's dictionary, indexed by its ids.
+     * @param remap Encoder id to local id; {@link Descriptions#NONE} stores the text inline.
+     */
+    static TransactionHistory decode(ByteBuffer buf, int count, String[] dictionary, int[] remap) {
+        TransactionHistory history = new TransactionHistory(count);
+        int chunks = (count + CHUNK_MASK) >>> CHUNK_SHIFT;
+        if (chunks > 1) {
+            history.timestamps = Arrays.copyOf(history.timestamps, chunks);
+            history.amounts = Arrays.copyOf(history.amounts, chunks);
+            history.types = Arrays.copyOf(history.types, chunks);
+            history.descriptionIds = Arrays.copyOf(history.descriptionIds, chunks);
+            for (int chunk = 1; chunk < chunks; chunk++) {
+                history.timestamps[chunk] = new long[CHUNK_SIZE];
+                history.amounts[chunk] = new long[CHUNK_SIZE];
+                history.types[chunk] = new byte[CHUNK_SIZE];
+                history.descriptionIds[chunk] = new int[CHUNK_SIZE];
+            }
+        }
+
+        for (int chunk = 0, n = count; n > 0; chunk++, n -= CHUNK_SIZE) {
+            int length = Math.min(n, CHUNK_SIZE);
+            buf.asLongBuffer().get(history.timestamps[chunk], 0, length);
+            buf.position(buf.position() + length * Long.BYTES);
+        }
+        for (int chunk = 0, n = count; n > 0; chunk++, n -= CHUNK_SIZE) {
+            int length = Math.min(n, CHUNK_SIZE);
+            buf.asLongBuffer().get(history.amounts[chunk], 0, length);
+            buf.position(buf.position() + length * Long.BYTES);
+        }
+        for (int chunk = 0, n = count; n > 0; chunk++, n -= CHUNK_SIZE) {
+            buf.get(history.types[chunk], 0, Math.min(n, CHUNK_SIZE));
+        }
+        for (int chunk = 0, n = count; n > 0; chunk++, n -= CHUNK_SIZE) {
+            int length = Math.min(n, CHUNK_SIZE);
+            buf.asIntBuffer().get(history.descriptionIds[chunk], 0, length);
+            buf.position(buf.position() + length * Integer.BYTES);
+        }
+
+        for (int i = 0; i < count; i++) {
+            int[] ids = history.descriptionIds[i >>> CHUNK_SHIFT];
+            int offset = i & CHUNK_MASK;
+            int id = ids[offset];
+            if (id == Descriptions.NONE) {
+                byte[] text = new byte[Short.toUnsignedInt(buf.getShort())];
+                buf.get(text);
+                history.setOverflow(i, new String(text, StandardCharsets.UTF_8));
+            } else {
+                ids[offset] = remap[id];
+                if (remap[id] == Descriptions.NONE) history.setOverflow(i, dictionary[id]);
+            }
+        }
+        for (int i = 0; i < count; i++) { // Rebuild the time index, the checkpoints and the interest index
+            int chunk = i >>> CHUNK_SHIFT;
+            int offset = i & CHUNK_MASK;
+            history.checkpoint(i);
+            Transaction.Type type = TYPES[history.types[chunk][offset]];
+            if (type == Transaction.Type.INTEREST) history.indexInterest(i);
+            history.balance += type.balanceChange(history.amounts[chunk][offset]);
+            history.lastTimestamp = Math.max(history.timestamps[chunk][offset], history.lastTimestamp);
+            history.timestamps[chunk][offset] = history.lastTimestamp;
+        }
+        for (int i = 0; i < count; i++) {
+            if (TYPES[history.types[i >>> CHUNK_SHIFT][i & CHUNK_MASK]].isTransfer()) {
+                byte[] counterpart = new byte[Short.toUnsignedInt(buf.getShort())];
+                buf.get(counterpart);
+                history.setLink(i, new String(counterpart, StandardCharsets.UTF_8), buf.getInt());
+            }
+        }
+        history.size = count; // Publish
+        return history;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+        }
+    }
+}
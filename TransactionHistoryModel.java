@@ -0,0 +1,88 @@
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Lazy table model over a {@link TransactionHistory}.
+ * <p>
+ * Nothing is formatted up front: the table asks for the cells of the rows it
+ * is painting, so only the visible page is rendered however long the history
+ * is. {@link #refresh()} announces only the rows appended since the last call,
+ * keeping a dashboard update constant-time. The variants taking a size show
+ * only that many rows, e.g. as far as a read model has got.
+ */
+class TransactionHistoryModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = { "Date", "Type", "Amount", "Description" };
+
+    private TransactionHistory history;
+    private int rowCount; // Rows the table has been told about
+
+    /**
+     * Shows another history (e.g. after a different account logs in), or none.
+     */
+    public void setHistory(TransactionHistory history) {
+        setHistory(history, history != null ? history.size() : 0);
+    }
+
+    /** Shows the first {@code size} rows of another history. */
+    public void setHistory(TransactionHistory history, int size) {
+        this.history = history;
+        this.rowCount = history != null ? Math.min(size, history.size()) : 0;
+        fireTableDataChanged();
+    }
+
+    public TransactionHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Picks up postings appended since the last refresh.
+     * @return true if rows were added.
+     */
+    public boolean refresh() {
+        return history != null && refresh(history.size());
+    }
+
+    /**
+     * Picks up postings appended since the last refresh, up to {@code size} rows.
+     * @return true if rows were added.
+     */
+    public boolean refresh(int size) {
+        if (history == null) return false;
+        size = Math.min(size, history.size());
+        if (size <= rowCount) return false;
+        int first = rowCount;
+        rowCount = size;
+        fireTableRowsInserted(first, size - 1);
+        return true;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column) {
+            case 0:
+                return Formats.timestamp(history.timestampAt(row));
+            case 1:
+                return history.typeAt(row);
+            case 2:
+                return Money.toPlainString(history.amountAt(row));
+            default:
+                return history.descriptionAt(row);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import bench.Bank;
+
+import java.io.IOException;
+
+/**
+ * {@link Bank} over an in-memory {@link Ledger}. Lives in the unnamed package
+ * so it can reach the application's package-private classes.
+ */
+public class BenchBank implements Bank {
+
+    private static final String[] DESCRIPTIONS = { "User Deposit", "User Withdrawal", "Withdrawal Fee" };
+    private static final String PIN_HASH = Pins.hash("0000"); // Hashed once; the benchmarks never log in
+
+    private static final PostingPipeline.Callback IGNORE = (result, balance) -> { };
+
+    private final Ledger ledger = new Ledger();
+    private String[] accountNumbers = new String[0];
+    private volatile PostingPipeline pipeline; // Started on first use
+
+    @Override
+    public void setUp(int accounts, int historyLength, long openingBalance) {
+        accountNumbers = new String[accounts];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < accounts; i++) {
+            Account.AccountType type = i % 2 == 0 ? Account.AccountType.SAVINGS : Account.AccountType.CHECKING;
+            Account account = ledger.openAccountWithCredential("Bench " + i, PIN_HASH, type);
+            account.deposit(openingBalance, "Opening Balance");
+            for (int j = 0; j < historyLength; j++) {
+                // A month of postings, oldest first; replay keeps the balance untouched
+                account.getTransactionHistory().append(Transaction.Type.values()[j % 3], 100 + j % 10_000,
+                        now - (historyLength - j) * 2_000L, DESCRIPTIONS[j % DESCRIPTIONS.length]);
+            }
+            accountNumbers[i] = account.getAccountNumber();
+        }
+    }
+
+    @Override
+    public int accountCount() {
+        return accountNumbers.length;
+    }
+
+    @Override
+    public int deposit(int account, long cents) {
+        return ledger.deposit(accountNumbers[account], cents, "User Deposit").ordinal();
+    }
+
+    @Override
+    public int withdraw(int account, long cents) {
+        return ledger.withdraw(accountNumbers[account], cents, "User Withdrawal").ordinal();
+    }
+
+    @Override
+    public void submitDeposit(int account, long cents) {
+        pipeline().deposit(accountNumbers[account], cents, "User Deposit", IGNORE);
+    }
+
+    @Override
+    public void submitWithdraw(int account, long cents) {
+        pipeline().withdraw(accountNumbers[account], cents, "User Withdrawal", IGNORE);
+    }
+
+    private PostingPipeline pipeline() {
+        PostingPipeline p = pipeline;
+        if (p == null) {
+            synchronized (this) {
+                if (pipeline == null) pipeline = new PostingPipeline(ledger);
+                p = pipeline;
+            }
+        }
+        return p;
+    }
+
+    @Override
+    public synchronized void tearDown() {
+        if (pipeline != null) pipeline.close();
+        pipeline = null;
+    }
+
+    @Override
+    public long applyInterest(int account, int rateBasisPoints) {
+        return ledger.applyInterest(accountNumbers[account], rateBasisPoints);
+    }
+
+    @Override
+    public int takeLoan(int account, long cents) {
+        return ledger.takeLoan(accountNumbers[account], cents).ordinal();
+    }
+
+    @Override
+    public int repayLoan(int account, long cents) {
+        return ledger.repayLoan(accountNumbers[account], cents).ordinal();
+    }
+
+    @Override
+    public String generateAccountNumber() {
+        return ledger.generateAccountNumber();
+    }
+
+    @Override
+    public String formatCurrency(long cents) {
+        return Formats.zar(cents); // What BankApp.formatCurrency renders
+    }
+
+    @Override
+    public void renderHistory(int account, int rows, Appendable out) throws IOException {
+        TransactionHistory history = ledger.getTransactionHistory(accountNumbers[account]);
+        int to = history.size();
+        Formats.renderHistory(history, Math.max(0, to - rows), to, out);
+    }
+
+    @Override
+    public int paintHistory(int account, int rows) {
+        TransactionHistoryModel model = new TransactionHistoryModel(); // One per view, as each dashboard has its own
+        model.setHistory(ledger.getTransactionHistory(accountNumbers[account]));
+        int hash = 0;
+        int to = model.getRowCount();
+        for (int row = Math.max(0, to - rows); row < to; row++) {
+            for (int column = 0; column < model.getColumnCount(); column++) {
+                hash += model.getValueAt(row, column).hashCode();
+            }
+        }
+        return hash;
+    }
+}
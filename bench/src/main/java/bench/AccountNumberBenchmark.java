@@ -0,0 +1,46 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Account-number generation, on one thread and on every core.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountNumberBenchmark {
+
+    private Bank bank;
+
+    @Setup
+    public void setUp() {
+        bank = Bank.create();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String generate() {
+        return bank.generateAccountNumber();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String generateContended() {
+        return bank.generateAccountNumber();
+    }
+}
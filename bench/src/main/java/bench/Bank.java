@@ -0,0 +1,69 @@
+package bench;
+
+import java.io.IOException;
+
+/**
+ * What the benchmarks drive: an in-memory ledger plus the formatting and
+ * history-rendering paths of the UI.
+ * <p>
+ * The application lives in the unnamed package, which JMH cannot generate
+ * benchmarks for and which named packages cannot import. {@link #create()}
+ * loads the one implementation, {@code BenchBank}, which sits in the unnamed
+ * package next to the application classes. Being the only implementation, its
+ * calls stay monomorphic and are inlined like direct calls.
+ */
+public interface Bank {
+
+    /**
+     * @param accounts Number of accounts to open.
+     * @param historyLength Postings to pre-load into each account's history.
+     * @param openingBalance Each account's balance in cents, before its history.
+     */
+    void setUp(int accounts, int historyLength, long openingBalance);
+
+    int accountCount();
+
+    /** Returns a result code; 0 is success. */
+    int deposit(int account, long cents);
+
+    int withdraw(int account, long cents);
+
+    /** Queues a deposit on the posting pipeline without waiting for it. */
+    void submitDeposit(int account, long cents);
+
+    /** Queues a withdrawal on the posting pipeline without waiting for it. */
+    void submitWithdraw(int account, long cents);
+
+    /** Stops anything {@link #setUp} started, once every queued posting is done. */
+    void tearDown();
+
+    /** Returns the interest credited, in cents. */
+    long applyInterest(int account, int rateBasisPoints);
+
+    int takeLoan(int account, long cents);
+
+    int repayLoan(int account, long cents);
+
+    String generateAccountNumber();
+
+    /** The dashboard's currency formatter. */
+    String formatCurrency(long cents);
+
+    /** Renders the last {@code rows} postings of an account as statement lines. */
+    void renderHistory(int account, int rows, Appendable out) throws IOException;
+
+    /**
+     * Loads an account's history into the table model and reads every cell of
+     * the last {@code rows} rows, as the table does when painting them.
+     * @return A value derived from the cells, to keep them alive.
+     */
+    int paintHistory(int account, int rows);
+
+    static Bank create() {
+        try {
+            return (Bank) Class.forName("BenchBank").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchBank is not on the class path", e);
+        }
+    }
+}
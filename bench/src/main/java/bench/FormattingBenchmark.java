@@ -0,0 +1,62 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The dashboard's currency formatter, against building an en-ZA
+ * {@link NumberFormat} per call as the dashboard originally did.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FormattingBenchmark {
+
+    private static final Locale EN_ZA = new Locale("en", "ZA");
+
+    private Bank bank;
+
+    @Setup
+    public void setUp() {
+        bank = Bank.create();
+    }
+
+    private static long anyAmount() {
+        return ThreadLocalRandom.current().nextLong(-1_000_000_000L, 1_000_000_000L);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String formatCurrency() {
+        return bank.formatCurrency(anyAmount());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String formatCurrencyContended() {
+        return bank.formatCurrency(anyAmount());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String numberFormatPerCall() {
+        return NumberFormat.getCurrencyInstance(EN_ZA).format(anyAmount() / 100.0);
+    }
+}
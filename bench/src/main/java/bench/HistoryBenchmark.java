@@ -0,0 +1,89 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering histories: a full statement, and the page of rows the dashboard
+ * table paints when an account is shown. Rendering only reads, so the ledger
+ * is built once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+
+    /** Rows visible in the dashboard's transaction table. */
+    private static final int PAGE_ROWS = 20;
+
+    @State(Scope.Benchmark)
+    public static class HistoryState {
+        @Param({ "1", "100" })
+        public int accounts;
+
+        @Param({ "100", "10000", "100000" })
+        public int historyLength;
+
+        Bank bank;
+
+        @Setup
+        public void setUp() {
+            bank = Bank.create();
+            bank.setUp(accounts, historyLength, 1_000_000_000L);
+        }
+
+        int anyAccount() {
+            return ThreadLocalRandom.current().nextInt(accounts);
+        }
+    }
+
+    /** Reused per thread, like a statement writer's buffer. */
+    @State(Scope.Thread)
+    public static class Output {
+        final StringBuilder out = new StringBuilder(1 << 20);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int renderStatement(HistoryState state, Output output) throws IOException {
+        output.out.setLength(0);
+        state.bank.renderHistory(state.anyAccount(), Integer.MAX_VALUE, output.out);
+        return output.out.length();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int renderStatementContended(HistoryState state, Output output) throws IOException {
+        output.out.setLength(0);
+        state.bank.renderHistory(state.anyAccount(), Integer.MAX_VALUE, output.out);
+        return output.out.length();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int paintPage(HistoryState state) {
+        return state.bank.paintHistory(state.anyAccount(), PAGE_ROWS);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int paintPageContended(HistoryState state) {
+        return state.bank.paintHistory(state.anyAccount(), PAGE_ROWS);
+    }
+}
@@ -0,0 +1,57 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interest postings to savings accounts, on one thread and on every core.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterestBenchmark {
+
+    private static final int RATE_BASIS_POINTS = 1;
+
+    /**
+     * Accounts hold R49.99, so 0.01% interest rounds to zero cents: every call
+     * still computes and posts the interest, but balances cannot compound
+     * towards overflow over millions of calls.
+     */
+    @State(Scope.Benchmark)
+    public static class SavingsState extends LedgerState {
+        @Override
+        protected long openingBalance() {
+            return 4_999;
+        }
+
+        /** Even-numbered accounts are the savings accounts. */
+        int anySavingsAccount() {
+            return anyAccount() & ~1;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long applyInterest(SavingsState state) {
+        return state.bank.applyInterest(state.anySavingsAccount(), RATE_BASIS_POINTS);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long applyInterestContended(SavingsState state) {
+        return state.bank.applyInterest(state.anySavingsAccount(), RATE_BASIS_POINTS);
+    }
+}
@@ -0,0 +1,50 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A ledger shared by every benchmark thread. With one account all threads
+ * fight over one lock stripe; with many they mostly post in parallel.
+ * <p>
+ * Rebuilt for every iteration, so the histories the postings append to stay
+ * the length being measured instead of growing across the whole run.
+ */
+@State(Scope.Benchmark)
+public class LedgerState {
+
+    @Param({ "1", "1000", "100000" })
+    public int accounts;
+
+    @Param({ "0", "100" })
+    public int historyLength;
+
+    public Bank bank;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        bank = Bank.create();
+        bank.setUp(accounts, historyLength, openingBalance());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        bank.tearDown();
+    }
+
+    /** Each account's balance in cents before its history; R10 million by default. */
+    protected long openingBalance() {
+        return 1_000_000_000L;
+    }
+
+    /** A random account, so threads spread over the ledger like independent users. */
+    public int anyAccount() {
+        return ThreadLocalRandom.current().nextInt(accounts);
+    }
+}
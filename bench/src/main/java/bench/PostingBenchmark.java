@@ -0,0 +1,78 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deposits, withdrawals and loans through the in-memory ledger, on one thread
+ * and on every core at once. The pipeline benchmarks queue postings on the
+ * sharded posting pipeline instead; a full ring holds producers back, so
+ * their rate is the rate the shards apply postings.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostingBenchmark {
+
+    @Benchmark
+    @Threads(1)
+    public int deposit(LedgerState state) {
+        return state.bank.deposit(state.anyAccount(), 10_000);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int depositContended(LedgerState state) {
+        return state.bank.deposit(state.anyAccount(), 10_000);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int withdraw(LedgerState state) {
+        return state.bank.withdraw(state.anyAccount(), 10_000);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int withdrawContended(LedgerState state) {
+        return state.bank.withdraw(state.anyAccount(), 10_000);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void pipelineDeposit(LedgerState state) {
+        state.bank.submitDeposit(state.anyAccount(), 10_000);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void pipelineWithdraw(LedgerState state) {
+        state.bank.submitWithdraw(state.anyAccount(), 10_000);
+    }
+
+    /** Takes a loan and repays it in full, leaving the account as it was. */
+    @Benchmark
+    @Threads(1)
+    public int loanCycle(LedgerState state) {
+        int account = state.anyAccount();
+        return state.bank.takeLoan(account, 500_000) + state.bank.repayLoan(account, 500_000);
+    }
+
+    /** Threads sharing an account may find its loan taken; that outcome is part of the measurement. */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int loanCycleContended(LedgerState state) {
+        int account = state.anyAccount();
+        return state.bank.takeLoan(account, 500_000) + state.bank.repayLoan(account, 500_000);
+    }
+}
@@ -0,0 +1,202 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Crash recovery: a ledger reopened from its journal, with or without a
+ * snapshot, comes back with the same accounts, balances, histories and
+ * idempotency keys it had when it stopped, less any torn record at the tail.
+ */
+class JournalRecoveryTest {
+
+    @TempDir
+    Path dir;
+
+    private Path journal() {
+        return dir.resolve("ledger.journal");
+    }
+
+    private Path snapshot() {
+        return dir.resolve("ledger.snapshot");
+    }
+
+    /** Opens two accounts and posts one of each kind of operation between them. */
+    private static String[] populate(Ledger ledger) {
+        String checking = ledger.openAccount("Thandi Nkosi", "1234", Account.AccountType.CHECKING).getAccountNumber();
+        String savings = ledger.openAccount("Pieter Botha", "9876", Account.AccountType.SAVINGS).getAccountNumber();
+        assertEquals(PostingResult.SUCCESS, ledger.deposit(checking, 50_000, "Salary"));
+        assertEquals(PostingResult.SUCCESS, ledger.deposit(savings, 120_000, "Opening deposit"));
+        assertEquals(PostingResult.SUCCESS, ledger.withdraw(checking, 7_500, "ATM"));
+        assertEquals(PostingResult.SUCCESS, ledger.transfer(checking, savings, 10_000, "Rent share"));
+        assertEquals(PostingResult.SUCCESS, ledger.takeLoan(checking, 20_000));
+        assertEquals(PostingResult.SUCCESS, ledger.repayLoan(checking, 5_000));
+        ledger.applyInterest(savings, 50);
+        ledger.openLoan(savings, 60_000, 1250, 12);
+        return new String[] {checking, savings};
+    }
+
+    @Test
+    void reopenRestoresBalancesAndHistories() throws IOException {
+        String before;
+        try (Ledger ledger = Ledger.open(journal())) {
+            populate(ledger);
+            before = LedgerStates.describe(ledger);
+        }
+        try (Ledger reopened = Ledger.open(journal())) {
+            assertEquals(before, LedgerStates.describe(reopened));
+        }
+    }
+
+    @Test
+    void tornTailIsTruncatedAway() throws IOException {
+        String before;
+        long intactEnd;
+        long fullEnd;
+        String checking;
+        try (Ledger ledger = Ledger.open(journal())) {
+            checking = populate(ledger)[0];
+            before = LedgerStates.describe(ledger);
+            intactEnd = ledger.journalEnd();
+            assertEquals(PostingResult.SUCCESS, ledger.deposit(checking, 999, "Lost in the crash"));
+            fullEnd = ledger.journalEnd();
+        }
+        // A crash partway through writing the last record leaves only some of its bytes
+        try (FileChannel channel = FileChannel.open(journal(), StandardOpenOption.WRITE)) {
+            channel.truncate(fullEnd - (fullEnd - intactEnd) / 2);
+        }
+
+        try (Ledger reopened = Ledger.open(journal())) {
+            assertEquals(before, LedgerStates.describe(reopened));
+            assertEquals(intactEnd, Files.size(journal()));
+            assertEquals(PostingResult.SUCCESS, reopened.deposit(checking, 1_000, "After the crash"));
+            before = LedgerStates.describe(reopened);
+        }
+        try (Ledger reopened = Ledger.open(journal())) {
+            assertEquals(before, LedgerStates.describe(reopened));
+        }
+    }
+
+    @Test
+    void recordFailingItsChecksumIsTruncatedAway() throws IOException {
+        String before;
+        long intactEnd;
+        long fullEnd;
+        try (Ledger ledger = Ledger.open(journal())) {
+            String checking = populate(ledger)[0];
+            before = LedgerStates.describe(ledger);
+            intactEnd = ledger.journalEnd();
+            assertEquals(PostingResult.SUCCESS, ledger.deposit(checking, 999, "Written but not all synced"));
+            fullEnd = ledger.journalEnd();
+        }
+        // Whole length, but a payload byte never reached the disk
+        try (FileChannel channel = FileChannel.open(journal(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, fullEnd - 1);
+            last.put(0, (byte) ~last.get(0));
+            channel.write(last.rewind(), fullEnd - 1);
+        }
+
+        try (Ledger reopened = Ledger.open(journal())) {
+            assertEquals(before, LedgerStates.describe(reopened));
+            assertEquals(intactEnd, Files.size(journal()));
+        }
+    }
+
+    @Test
+    void snapshotPlusJournalMatchesFullReplay() throws IOException {
+        String before;
+        try (Ledger ledger = Ledger.open(journal(), snapshot())) {
+            String[] numbers = populate(ledger);
+            ledger.writeSnapshot();
+            assertEquals(PostingResult.SUCCESS, ledger.deposit(numbers[0], 2_500, "After the snapshot"));
+            assertEquals(PostingResult.SUCCESS, ledger.transfer(numbers[1], numbers[0], 4_000, "Refund"));
+            ledger.openAccount("Lerato Dube", "5555", Account.AccountType.SAVINGS);
+            before = LedgerStates.describe(ledger);
+        }
+
+        try (Ledger fromSnapshot = Ledger.open(journal(), snapshot())) {
+            assertEquals(before, LedgerStates.describe(fromSnapshot));
+        }
+        try (Ledger fromJournal = Ledger.openReadOnly(journal(), null)) {
+            assertEquals(before, LedgerStates.describe(fromJournal));
+        }
+    }
+
+    @Test
+    void reopenedLedgerKeepsAccountNumbersUnique() throws IOException {
+        String first;
+        try (Ledger ledger = Ledger.open(journal(), snapshot())) {
+            first = ledger.openAccount("Thandi Nkosi", "1234", Account.AccountType.CHECKING).getAccountNumber();
+            ledger.writeSnapshot();
+        }
+        try (Ledger reopened = Ledger.open(journal(), snapshot())) {
+            String second = reopened.openAccount("Pieter Botha", "9876", Account.AccountType.SAVINGS)
+                    .getAccountNumber();
+            assertNotEquals(first, second);
+        }
+    }
+
+    @Test
+    void keyedRepeatIsAnsweredFromTheJournal() throws IOException {
+        String checking;
+        String savings;
+        long interest;
+        String before;
+        try (Ledger ledger = Ledger.open(journal())) {
+            String[] numbers = populate(ledger);
+            checking = numbers[0];
+            savings = numbers[1];
+            assertEquals(PostingResult.SUCCESS, ledger.deposit(checking, 3_000, "Keyed deposit", "dep-1"));
+            assertEquals(PostingResult.INSUFFICIENT_FUNDS,
+                    ledger.withdraw(checking, 10_000_000, "Keyed withdrawal", "wd-1"));
+            interest = ledger.applyInterest(savings, 100, "int-1");
+            before = LedgerStates.describe(ledger);
+        }
+
+        try (Ledger reopened = Ledger.open(journal())) {
+            assertRepeatsAnswered(reopened, checking, savings, interest);
+            assertEquals(before, LedgerStates.describe(reopened));
+        }
+    }
+
+    @Test
+    void keyedRepeatIsAnsweredFromTheSnapshot() throws IOException {
+        String checking;
+        String savings;
+        long interest;
+        String before;
+        try (Ledger ledger = Ledger.open(journal(), snapshot())) {
+            String[] numbers = populate(ledger);
+            checking = numbers[0];
+            savings = numbers[1];
+            assertEquals(PostingResult.SUCCESS, ledger.deposit(checking, 3_000, "Keyed deposit", "dep-1"));
+            assertEquals(PostingResult.INSUFFICIENT_FUNDS,
+                    ledger.withdraw(checking, 10_000_000, "Keyed withdrawal", "wd-1"));
+            interest = ledger.applyInterest(savings, 100, "int-1");
+            ledger.writeSnapshot();
+            before = LedgerStates.describe(ledger);
+        }
+
+        try (Ledger reopened = Ledger.open(journal(), snapshot())) {
+            assertRepeatsAnswered(reopened, checking, savings, interest);
+            assertEquals(before, LedgerStates.describe(reopened));
+        }
+    }
+
+    /** Each keyed operation repeated gets its first answer back and posts nothing. */
+    private static void assertRepeatsAnswered(Ledger ledger, String checking, String savings, long interest) {
+        assertEquals(PostingResult.SUCCESS, ledger.deposit(checking, 3_000, "Keyed deposit", "dep-1"));
+        assertEquals(PostingResult.INSUFFICIENT_FUNDS,
+                ledger.withdraw(checking, 10_000_000, "Keyed withdrawal", "wd-1"));
+        assertEquals(interest, ledger.applyInterest(savings, 100, "int-1"));
+    }
+}
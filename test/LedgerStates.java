@@ -0,0 +1,42 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders everything a ledger recovers (accounts, balances, loans and every
+ * history row) as text, so two ledgers can be compared with one assertion
+ * and a mismatch shows where they differ.
+ */
+final class LedgerStates {
+
+    private LedgerStates() {
+    }
+
+    static String describe(Ledger ledger) {
+        List<Account> accounts = new ArrayList<>(ledger.getAccounts());
+        accounts.sort((a, b) -> a.getAccountNumber().compareTo(b.getAccountNumber()));
+        StringBuilder out = new StringBuilder();
+        for (Account account : accounts) {
+            out.append(account.getAccountNumber()).append(' ')
+                    .append(account.getAccountHolderName()).append(' ')
+                    .append(account.getType()).append(' ')
+                    .append(account.getPinHash())
+                    .append(" balance=").append(account.getBalance())
+                    .append(" loan=").append(account.getLoanAmount()).append('\n');
+            for (Loan loan : account.getLoans()) {
+                out.append("  loan ").append(loan.id)
+                        .append(" principal=").append(loan.principal)
+                        .append(" paid=").append(loan.getPaidInstallments())
+                        .append(" outstanding=").append(loan.getOutstanding()).append('\n');
+            }
+            TransactionHistory history = ledger.getTransactionHistory(account.getAccountNumber());
+            for (int i = 0; i < history.size(); i++) {
+                out.append("  ").append(history.typeAt(i))
+                        .append(' ').append(history.amountAt(i))
+                        .append(' ').append(history.timestampAt(i))
+                        .append(' ').append(history.descriptionAt(i))
+                        .append(' ').append(history.counterpartAt(i)).append('\n');
+            }
+        }
+        return out.toString();
+    }
+}
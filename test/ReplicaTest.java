@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A follower that connects late catches up on the leader's whole journal and
+ * keeps up with what is posted after, ending with the same ledger and a
+ * byte-for-byte copy of the journal.
+ */
+class ReplicaTest {
+
+    private static final long CATCH_UP_MILLIS = 10_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void lateFollowerCatchesUp() throws IOException, InterruptedException {
+        Path leaderJournal = dir.resolve("leader.journal");
+        Path followerJournal = dir.resolve("follower.journal");
+        String expected;
+        try (Ledger leader = Ledger.open(leaderJournal)) {
+            ReplicationLeader replication = leader.replicateTo(0, 0, 1_000);
+            String checking = leader.openAccount("Thandi Nkosi", "1234", Account.AccountType.CHECKING)
+                    .getAccountNumber();
+            String savings = leader.openAccount("Pieter Botha", "9876", Account.AccountType.SAVINGS)
+                    .getAccountNumber();
+            assertEquals(PostingResult.SUCCESS, leader.deposit(checking, 50_000, "Salary"));
+            assertEquals(PostingResult.SUCCESS, leader.transfer(checking, savings, 10_000, "Rent share", "tx-1"));
+
+            try (Ledger follower = Ledger.open(followerJournal);
+                 Replica replica = new Replica(follower,
+                         new InetSocketAddress(InetAddress.getLoopbackAddress(), replication.port()))) {
+                awaitApplied(replica, leader.journalEnd());
+
+                assertEquals(PostingResult.SUCCESS, leader.withdraw(checking, 2_000, "ATM"));
+                leader.applyInterest(savings, 50);
+                awaitApplied(replica, leader.journalEnd());
+
+                expected = LedgerStates.describe(leader);
+                assertEquals(expected, LedgerStates.describe(follower));
+            }
+            assertArrayEquals(Files.readAllBytes(leaderJournal), Files.readAllBytes(followerJournal));
+        }
+
+        // Promoted after the leader is gone, the follower's journal recovers the same ledger
+        try (Ledger promoted = Ledger.open(followerJournal)) {
+            assertEquals(expected, LedgerStates.describe(promoted));
+        }
+    }
+
+    private static void awaitApplied(Replica replica, long position) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + CATCH_UP_MILLIS;
+        while (replica.appliedPosition() < position && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(replica.isFollowing(), "Replica stopped following");
+        assertEquals(position, replica.appliedPosition());
+    }
+}